@@ -14,8 +14,17 @@ import com.agiletec.aps.system.services.user.UserDetails;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.entando.entando.ent.exception.EntException;
@@ -31,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.InsufficientAuthenticationException;
 import org.springframework.security.core.Authentication;
@@ -46,6 +56,8 @@ public class KeycloakAuthenticationFilter extends AbstractAuthenticationProcessi
 
     private static final Logger log = LoggerFactory.getLogger(KeycloakAuthenticationFilter.class);
 
+    static final String TOKEN_VALIDATION_ATTRIBUTE = KeycloakAuthenticationFilter.class.getName() + ".tokenValidation";
+
     private final ObjectMapper objectMapper;
     private final KeycloakConfiguration configuration;
     private final IUserManager userManager;
@@ -69,19 +81,89 @@ public class KeycloakAuthenticationFilter extends AbstractAuthenticationProcessi
         this.authenticationProviderManager = authenticationProviderManager;
     }
 
+    /**
+     * With {@code keycloak.authentication.async} enabled, a request whose token has to be validated by Keycloak
+     * is put in async mode and the servlet thread is released. Once the validation completes, its outcome is
+     * stored on the request and the request is dispatched again through the chain. A validation still pending
+     * after the Keycloak read timeout, or interrupted by a container error, is recorded as inactive.
+     */
+    @Override
+    public void doFilter(final ServletRequest req, final ServletResponse res, final FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest request = (HttpServletRequest) req;
+        final HttpServletResponse response = (HttpServletResponse) res;
+        final String bearerToken = getBearerToken(request);
+
+        if (bearerToken == null || !configuration.isAsyncAuthentication() || !request.isAsyncSupported()
+                || !DispatcherType.REQUEST.equals(request.getDispatcherType())
+                || request.getAttribute(TOKEN_VALIDATION_ATTRIBUTE) != null
+                || !requiresAuthentication(request, response)) {
+            super.doFilter(req, res, chain);
+            return;
+        }
+
+        final CompletableFuture<ResponseEntity<AccessToken>> validation = oidcService.validateTokenAsync(bearerToken);
+        if (validation.isDone()) {
+            request.setAttribute(TOKEN_VALIDATION_ATTRIBUTE, outcome(validation));
+            super.doFilter(req, res, chain);
+            return;
+        }
+
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        final AtomicBoolean resumed = new AtomicBoolean();
+        asyncContext.setTimeout(oidcService.getHttpClient().getReadTimeout().toMillis());
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                resumed.set(true);
+            }
+
+            @Override
+            public void onTimeout(final AsyncEvent event) {
+                log.warn("Timed out waiting for the token validation");
+                resume(asyncContext, resumed, ResponseEntity.ok(new AccessToken()));
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                log.warn("Error waiting for the token validation", event.getThrowable());
+                resume(asyncContext, resumed, ResponseEntity.ok(new AccessToken()));
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+                // not necessary
+            }
+        });
+        validation.whenComplete((result, e) -> resume(asyncContext, resumed, e != null ? unwrap(e) : result));
+    }
+
+    /**
+     * Stores the validation outcome and dispatches the request, only once and only while the request is still async.
+     */
+    private static void resume(final AsyncContext asyncContext, final AtomicBoolean resumed, final Object outcome) {
+        if (!resumed.compareAndSet(false, true)) {
+            return;
+        }
+        asyncContext.getRequest().setAttribute(TOKEN_VALIDATION_ATTRIBUTE, outcome);
+        try {
+            asyncContext.dispatch();
+        } catch (IllegalStateException ex) {
+            log.warn("Unable to resume the request after the token validation, the request is no longer async", ex);
+        }
+    }
+
     @Override
     public Authentication attemptAuthentication(final HttpServletRequest request, final HttpServletResponse response) throws AuthenticationException {
-        final String authorization = request.getHeader("Authorization");
+        final String bearerToken = getBearerToken(request);
 
-        if (authorization == null || !authorization.matches("^[Bb]earer .*")) {
+        if (bearerToken == null) {
             final UserDetails guestUser = userManager.getGuestUser();
             final GuestAuthentication guestAuthentication = new GuestAuthentication(guestUser);
             setUserOnContext(request, guestUser, guestAuthentication);
             return guestAuthentication;
         }
 
-        final String bearerToken = authorization.substring("Bearer ".length());
-        final ResponseEntity<AccessToken> resp = oidcService.validateToken(bearerToken);
+        final ResponseEntity<AccessToken> resp = validateToken(request, bearerToken);
         final AccessToken accessToken = resp.getBody();
 
         if (HttpStatus.NOT_FOUND.equals(resp.getStatusCode()) || HttpStatus.UNAUTHORIZED.equals(resp.getStatusCode())) {
@@ -94,7 +176,9 @@ public class KeycloakAuthenticationFilter extends AbstractAuthenticationProcessi
         }
 
         try {
-            final UserDetails user = authenticationProviderManager.getUser(accessToken.getUsername());
+            final UserDetails user = configuration.isTokenPrincipal()
+                    ? keycloakGroupManager.createUserFromToken(accessToken)
+                    : authenticationProviderManager.getUser(accessToken.getUsername());
             final UserAuthentication userAuthentication = new UserAuthentication(user);
 
             ofNullable(accessToken.getResourceAccess())
@@ -104,7 +188,6 @@ public class KeycloakAuthenticationFilter extends AbstractAuthenticationProcessi
 
             setUserOnContext(request, user, userAuthentication);
 
-            // TODO optimise to not check on every request
             keycloakGroupManager.processNewUser(user);
 
             return userAuthentication;
@@ -114,6 +197,42 @@ public class KeycloakAuthenticationFilter extends AbstractAuthenticationProcessi
         }
     }
 
+    private static String getBearerToken(final HttpServletRequest request) {
+        final String authorization = request.getHeader("Authorization");
+        return authorization == null || !authorization.matches("^[Bb]earer .*") ? null : authorization.substring("Bearer ".length());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ResponseEntity<AccessToken> validateToken(final HttpServletRequest request, final String bearerToken) {
+        final Object validation = request.getAttribute(TOKEN_VALIDATION_ATTRIBUTE);
+        if (validation == null) {
+            return oidcService.validateToken(bearerToken);
+        }
+        request.removeAttribute(TOKEN_VALIDATION_ATTRIBUTE);
+        if (validation instanceof RuntimeException) {
+            throw (RuntimeException) validation;
+        }
+        if (validation instanceof Error) {
+            throw (Error) validation;
+        }
+        if (validation instanceof Throwable) {
+            throw new AuthenticationServiceException("Unable to validate the token", (Throwable) validation);
+        }
+        return (ResponseEntity<AccessToken>) validation;
+    }
+
+    private static Object outcome(final CompletableFuture<ResponseEntity<AccessToken>> validation) {
+        try {
+            return validation.join();
+        } catch (CompletionException e) {
+            return unwrap(e);
+        }
+    }
+
+    private static Throwable unwrap(final Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
     private void addAuthorizations(final List<String> permissions, final UserDetails user) {
 
         permissions.stream()
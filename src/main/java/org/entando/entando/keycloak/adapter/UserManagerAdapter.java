@@ -4,11 +4,16 @@ import com.agiletec.aps.system.services.authorization.IAuthorizationManager;
 import com.agiletec.aps.system.services.user.IUserManager;
 import com.agiletec.aps.system.services.user.UserDetails;
 import com.agiletec.aps.system.services.user.UserManager;
+import org.apache.commons.lang3.StringUtils;
 import org.entando.entando.keycloak.services.KeycloakService;
 import org.entando.entando.keycloak.services.KeycloakUserManager;
+import org.entando.entando.keycloak.services.ProvisionedUserRegistry;
+import org.entando.entando.keycloak.services.UserDetailsCache;
+import org.entando.entando.keycloak.services.UserProvisioningReport;
 import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
 
 import java.util.List;
+import java.util.stream.Stream;
 import org.entando.entando.ent.exception.EntException;
 
 public class UserManagerAdapter extends UserManager implements IUserManager {
@@ -20,7 +25,15 @@ public class UserManagerAdapter extends UserManager implements IUserManager {
     public UserManagerAdapter(final IAuthorizationManager authorizationManager,
                               final KeycloakService keycloakService,
                               final OpenIDConnectService oidcService) {
-        keycloak = new KeycloakUserManager(authorizationManager, keycloakService, oidcService);
+        this(authorizationManager, keycloakService, oidcService, null, null);
+    }
+
+    public UserManagerAdapter(final IAuthorizationManager authorizationManager,
+                              final KeycloakService keycloakService,
+                              final OpenIDConnectService oidcService,
+                              final UserDetailsCache userCache,
+                              final ProvisionedUserRegistry provisionedUsers) {
+        keycloak = new KeycloakUserManager(authorizationManager, keycloakService, oidcService, userCache, provisionedUsers);
     }
 
     private boolean keycloakEnabled;
@@ -45,6 +58,27 @@ public class UserManagerAdapter extends UserManager implements IUserManager {
         return keycloakEnabled ? keycloak.searchUsers(text) : super.searchUsers(text);
     }
 
+    /**
+     * Returns one page of the users matching {@code filter}, or of all the users when {@code filter} is empty.
+     * A negative {@code offset} or {@code limit} is read as 0.
+     */
+    public List<UserDetails> getUsers(final int offset, final int limit, final String filter) throws EntException {
+        final int first = Math.max(offset, 0);
+        final int max = Math.max(limit, 0);
+        if (keycloakEnabled) {
+            return keycloak.getUsers(first, max, filter);
+        }
+        final List<UserDetails> users = StringUtils.isEmpty(filter) ? getUsers() : searchUsers(filter);
+        return users.subList(Math.min(first, users.size()), (int) Math.min((long) first + max, users.size()));
+    }
+
+    public int countUsers(final String filter) throws EntException {
+        if (keycloakEnabled) {
+            return keycloak.countUsers(filter);
+        }
+        return (StringUtils.isEmpty(filter) ? getUsers() : searchUsers(filter)).size();
+    }
+
     @Override
     public void removeUser(final UserDetails userDetails) throws EntException {
         if (keycloakEnabled) keycloak.removeUser(userDetails);
@@ -81,6 +115,36 @@ public class UserManagerAdapter extends UserManager implements IUserManager {
         else super.addUser(userDetails);
     }
 
+    public UserProvisioningReport addUsers(final Stream<UserDetails> users) {
+        if (keycloakEnabled) {
+            return keycloak.addUsers(users);
+        }
+        final UserProvisioningReport report = new UserProvisioningReport();
+        users.forEach(user -> {
+            try {
+                if (exists(user.getUsername())) {
+                    report.add(user.getUsername(), UserProvisioningReport.Outcome.EXISTING, null);
+                    return;
+                }
+                addUser(user);
+                report.add(user.getUsername(), UserProvisioningReport.Outcome.CREATED, null);
+            } catch (EntException | RuntimeException e) {
+                // the user may have been added meanwhile, like on Keycloak it is then reported as existing
+                report.add(user.getUsername(), exists(user.getUsername())
+                        ? UserProvisioningReport.Outcome.EXISTING : UserProvisioningReport.Outcome.FAILED, e.getMessage());
+            }
+        });
+        return report;
+    }
+
+    private boolean exists(final String username) {
+        try {
+            return getUser(username) != null;
+        } catch (EntException | RuntimeException e) {
+            return false;
+        }
+    }
+
     @Override
     public UserDetails getUser(final String username) throws EntException {
         return keycloakEnabled ? keycloak.getUser(username) : super.getUser(username);
@@ -0,0 +1,149 @@
+package org.entando.entando.keycloak.services;
+
+import com.agiletec.aps.system.services.user.UserDetails;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+import org.entando.entando.keycloak.services.UserProvisioningReport.Outcome;
+import org.entando.entando.keycloak.services.oidc.model.PartialImportResults;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Creates many users with at most {@code keycloak.user.provisioning.parallelism} requests in flight. The users
+ * are read from the stream only as fast as Keycloak takes them.
+ * <p>
+ * Users are sent in batches to the realm partial import when it is available, a single request creating
+ * them with their temporary password. Otherwise, or when a batch is refused, each user is added on its own
+ * like {@link KeycloakUserManager#addUser(UserDetails)}.
+ */
+class BulkUserProvisioner {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkUserProvisioner.class);
+
+    private static final int IMPORT_BATCH_SIZE = 100;
+
+    private final KeycloakService keycloakService;
+    private final KeycloakUserManager userManager;
+    private final int parallelism;
+
+    BulkUserProvisioner(final KeycloakService keycloakService, final KeycloakUserManager userManager) {
+        this.keycloakService = keycloakService;
+        this.userManager = userManager;
+        this.parallelism = keycloakService.getProvisioningParallelism();
+    }
+
+    UserProvisioningReport provision(final Stream<UserDetails> users) {
+        final UserProvisioningReport report = new UserProvisioningReport();
+        final Semaphore permits = new Semaphore(parallelism);
+        final Iterator<UserDetails> iterator = users.iterator();
+        List<UserDetails> batch = new ArrayList<>();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            if (!iterator.hasNext() || batch.size() >= (keycloakService.isPartialImportAvailable() ? IMPORT_BATCH_SIZE : 1)) {
+                final List<UserDetails> submitted = batch;
+                permits.acquireUninterruptibly();
+                keycloakService.executeAsync(() -> {
+                    provisionBatch(submitted, report);
+                    return null;
+                }).whenComplete((result, e) -> {
+                    if (e != null) {
+                        submitted.forEach(user -> report.add(user.getUsername(), Outcome.FAILED, e.getMessage()));
+                    }
+                    permits.release();
+                });
+                batch = new ArrayList<>();
+            }
+        }
+        permits.acquireUninterruptibly(parallelism);
+        return report;
+    }
+
+    private void provisionBatch(final List<UserDetails> batch, final UserProvisioningReport report) {
+        try {
+            final Optional<PartialImportResults> imported = keycloakService.importUsers(toRepresentations(batch));
+            if (imported.isPresent()) {
+                addResults(batch, imported.get(), report);
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Partial import of {} users refused, adding them one by one", batch.size(), e);
+        }
+        batch.forEach(user -> provisionUser(user, report));
+    }
+
+    private void provisionUser(final UserDetails user, final UserProvisioningReport report) {
+        try {
+            userManager.addUser(user);
+            report.add(user.getUsername(), Outcome.CREATED, null);
+        } catch (HttpClientErrorException.Conflict e) {
+            report.add(user.getUsername(), Outcome.EXISTING, null);
+        } catch (RuntimeException e) {
+            log.debug("Unable to provision user {}", user.getUsername(), e);
+            report.add(user.getUsername(), Outcome.FAILED, e.getMessage());
+        }
+    }
+
+    private void addResults(final List<UserDetails> batch, final PartialImportResults imported,
+                            final UserProvisioningReport report) {
+        final Map<String, PartialImportResults.Result> results = new HashMap<>();
+        Optional.ofNullable(imported.getResults()).orElse(Collections.emptyList()).stream()
+                .filter(result -> result.getResourceName() != null)
+                .forEach(result -> results.put(result.getResourceName().toLowerCase(Locale.ROOT), result));
+        for (final UserDetails user : batch) {
+            // Keycloak stores the usernames in lower case
+            final PartialImportResults.Result result = results.get(user.getUsername().toLowerCase(Locale.ROOT));
+            if (result == null) {
+                report.add(user.getUsername(), Outcome.FAILED, "Not imported by Keycloak");
+            } else if ("ADDED".equals(result.getAction())) {
+                onImported(user, result.getId());
+                report.add(user.getUsername(), Outcome.CREATED, null);
+            } else {
+                report.add(user.getUsername(), Outcome.EXISTING, null);
+            }
+        }
+    }
+
+    private void onImported(final UserDetails user, final String id) {
+        if (id == null) {
+            return;
+        }
+        keycloakService.cacheUserId(user.getUsername(), id);
+        keycloakService.getUserDirectory().ifPresent(directory -> {
+            final UserRepresentation userRep = new UserRepresentation();
+            userRep.setId(id);
+            userRep.setUsername(user.getUsername());
+            userRep.setEnabled(!user.isDisabled());
+            userRep.setRequiredActions(Collections.singletonList(KeycloakUserManager.UPDATE_PASSWORD));
+            directory.put(userRep);
+        });
+    }
+
+    private static List<Map<String, Object>> toRepresentations(final List<UserDetails> batch) {
+        final List<Map<String, Object>> users = new ArrayList<>(batch.size());
+        for (final UserDetails user : batch) {
+            final Map<String, Object> userRep = new HashMap<>();
+            userRep.put("username", user.getUsername());
+            userRep.put("enabled", !user.isDisabled());
+            if (user.getPassword() != null) {
+                final Map<String, Object> credential = new HashMap<>();
+                credential.put("type", "password");
+                credential.put("value", user.getPassword());
+                credential.put("temporary", true);
+                userRep.put("credentials", Collections.singletonList(credential));
+                userRep.put("requiredActions", Collections.singletonList(KeycloakUserManager.UPDATE_PASSWORD));
+            }
+            users.add(userRep);
+        }
+        return users;
+    }
+}
@@ -7,11 +7,16 @@ import com.agiletec.aps.system.services.group.GroupManager;
 import com.agiletec.aps.system.services.role.Role;
 import com.agiletec.aps.system.services.role.RoleManager;
 import com.agiletec.aps.system.services.user.UserDetails;
-import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -26,6 +31,9 @@ public class KeycloakAuthorizationManager {
     private final AuthorizationManager authorizationManager;
     private final GroupManager groupManager;
     private final RoleManager roleManager;
+    private final UserDetailsCache userCache;
+    private final ProvisionedUserRegistry provisionedUsers;
+    private volatile DefaultAuthorizationPlan plan = DefaultAuthorizationPlan.EMPTY;
 
     private static final int GROUP_POSITION = 0;
     private static final int ROLE_POSITION = 1;
@@ -34,45 +42,75 @@ public class KeycloakAuthorizationManager {
     public KeycloakAuthorizationManager(final KeycloakConfiguration configuration,
                                         final AuthorizationManager authorizationManager,
                                         final GroupManager groupManager,
-                                        final RoleManager roleManager) {
+                                        final RoleManager roleManager,
+                                        final UserDetailsCache userCache,
+                                        final ProvisionedUserRegistry provisionedUsers) {
         this.configuration = configuration;
         this.authorizationManager = authorizationManager;
         this.groupManager = groupManager;
         this.roleManager = roleManager;
+        this.userCache = userCache;
+        this.provisionedUsers = provisionedUsers;
     }
 
+    /**
+     * Builds the user of a validated access token from its claims, without calling the Keycloak admin API:
+     * Keycloak only issues tokens to enabled users with no pending required action, so an active token is an
+     * enabled user with valid credentials. A user disabled on Keycloak stays authenticated until the token expires.
+     */
+    public TokenUser createUserFromToken(final AccessToken accessToken) throws EntException {
+        final TokenUser user = new TokenUser(accessToken);
+        user.setAuthorizations(authorizationManager.getUserAuthorizations(accessToken.getUsername()));
+        return user;
+    }
+
+    /**
+     * Assigns the default authorizations the user is missing, once per user and version of
+     * {@code keycloak.authenticated.user.default.authorizations}.
+     */
     public void processNewUser(final UserDetails user) {
-        if (StringUtils.isEmpty(configuration.getDefaultAuthorizations())) {
+        final DefaultAuthorizationPlan currentPlan = getPlan();
+        if (currentPlan.isEmpty() || provisionedUsers.isProvisioned(user.getUsername(), currentPlan.getSource())) {
             return;
         }
-        final Set<String> defaultAuthorizations = Sets.newHashSet(configuration.getDefaultAuthorizations().split(","));
-        final Set<String> userAuthorizations = user.getAuthorizations().stream().map(authorization -> {
-            final String group = ofNullable(authorization.getGroup()).map(Group::getName).orElse("");
-            final String role = ofNullable(authorization.getRole()).map(Role::getName).orElse("");
-            return StringUtils.isEmpty(role) ? group : group + ":" + role;
-        }).collect(Collectors.toSet());
-
-        defaultAuthorizations.stream()
-                .filter(defaultGroup -> !userAuthorizations.contains(defaultGroup))
-                .forEach(authorization -> this.assignGroupToUser(authorization, user));
+        final Set<String> userAuthorizations = user.getAuthorizations().stream()
+                .map(authorization -> key(ofNullable(authorization.getGroup()).map(Group::getName).orElse(""),
+                        ofNullable(authorization.getRole()).map(Role::getName).orElse("")))
+                .collect(Collectors.toSet());
+
+        currentPlan.getAuthorizations().stream()
+                .filter(planned -> !userAuthorizations.contains(planned.getKey()))
+                .forEach(planned -> this.assignToUser(planned, user));
+        provisionedUsers.markProvisioned(user.getUsername(), currentPlan.getSource());
     }
 
-    private void assignGroupToUser(final String authorization, final UserDetails user) {
-        final String[] split = authorization.split(":");
-        String groupName = split.length > 0 ? split[GROUP_POSITION] : "";
-        String roleName = split.length > 1 ? split[ROLE_POSITION] : "";
+    private DefaultAuthorizationPlan getPlan() {
+        final String source = StringUtils.defaultString(configuration.getDefaultAuthorizations());
+        DefaultAuthorizationPlan currentPlan = plan;
+        if (!currentPlan.getSource().equals(source)) {
+            currentPlan = DefaultAuthorizationPlan.compile(source);
+            plan = currentPlan;
+        }
+        return currentPlan;
+    }
+
+    private void assignToUser(final PlannedAuthorization planned, final UserDetails user) {
+        // resolved on every assignment, the group or the role may have been removed since the plan was compiled
+        final Group group = ofNullable(planned.getGroupName()).map(this::findOrCreateGroup).orElse(null);
+        final Role role = ofNullable(planned.getRoleName()).map(this::findOrCreateRole).orElse(null);
         try {
-            final Group group = ofNullable(groupName).filter(StringUtils::isNotEmpty)
-                    .map(this::findOrCreateGroup).orElse(null);
-            final Role role = ofNullable(roleName).filter(StringUtils::isNotEmpty)
-                    .map(this::findOrCreateRole).orElse(null);
-            groupName = ofNullable(group).map(Group::getName).orElse(null); // null or "" ?
-            roleName = ofNullable(role).map(Role::getName).orElse(null); // null or "" ?
-            authorizationManager.addUserAuthorization(user.getUsername(), groupName, roleName);
-            user.addAuthorization(new Authorization(group, role));
+            authorizationManager.addUserAuthorization(user.getUsername(),
+                    ofNullable(group).map(Group::getName).orElse(null),
+                    ofNullable(role).map(Role::getName).orElse(null));
         } catch (EntException e) {
             throw new RuntimeException(e);
         }
+        userCache.invalidate(user.getUsername());
+        user.addAuthorization(new Authorization(group, role));
+    }
+
+    private static String key(final String groupName, final String roleName) {
+        return StringUtils.isEmpty(roleName) ? groupName : groupName + ":" + roleName;
     }
 
     private Group findOrCreateGroup(final String groupName) {
@@ -105,4 +143,71 @@ public class KeycloakAuthorizationManager {
         }
     }
 
+    /**
+     * The default authorizations parsed once per version of the configuration, each with the key it has among
+     * the user authorizations. The plan is immutable, groups and roles are looked up when they are assigned.
+     */
+    private static final class DefaultAuthorizationPlan {
+
+        private static final DefaultAuthorizationPlan EMPTY = new DefaultAuthorizationPlan("", Collections.emptyList());
+
+        private final String source;
+        private final List<PlannedAuthorization> authorizations;
+
+        private DefaultAuthorizationPlan(final String source, final List<PlannedAuthorization> authorizations) {
+            this.source = source;
+            this.authorizations = authorizations;
+        }
+
+        private static DefaultAuthorizationPlan compile(final String source) {
+            final Map<String, PlannedAuthorization> authorizations = new LinkedHashMap<>();
+            for (final String authorization : source.split(",")) {
+                final String[] split = authorization.trim().split(":");
+                final String groupName = StringUtils.trimToNull(split.length > 0 ? split[GROUP_POSITION] : null);
+                final String roleName = StringUtils.trimToNull(split.length > 1 ? split[ROLE_POSITION] : null);
+                if (groupName != null || roleName != null) {
+                    final String key = key(StringUtils.defaultString(groupName), roleName);
+                    authorizations.putIfAbsent(key, new PlannedAuthorization(key, groupName, roleName));
+                }
+            }
+            return new DefaultAuthorizationPlan(source, Collections.unmodifiableList(new ArrayList<>(authorizations.values())));
+        }
+
+        private String getSource() {
+            return source;
+        }
+
+        private List<PlannedAuthorization> getAuthorizations() {
+            return authorizations;
+        }
+
+        private boolean isEmpty() {
+            return authorizations.isEmpty();
+        }
+    }
+
+    private static final class PlannedAuthorization {
+
+        private final String key;
+        private final String groupName;
+        private final String roleName;
+
+        private PlannedAuthorization(final String key, final String groupName, final String roleName) {
+            this.key = key;
+            this.groupName = groupName;
+            this.roleName = roleName;
+        }
+
+        private String getKey() {
+            return key;
+        }
+
+        private String getGroupName() {
+            return groupName;
+        }
+
+        private String getRoleName() {
+            return roleName;
+        }
+    }
 }
@@ -13,5 +13,36 @@ public class KeycloakConfiguration {
     private String publicClientId;
     private String secureUris;
     private String defaultAuthorizations;
+    private String provisionedUsersFile;
+    private int userPageSize;
+    private int userScanParallelism;
+    private boolean userDirectoryReplica;
+    private int userDirectorySyncSeconds;
+    private int userDirectoryResyncSeconds;
+    private int userIdCacheSize;
+    private int userCacheSize;
+    private int userCacheTtlSeconds;
+    private int userProvisioningParallelism;
+    private boolean userProvisioningPartialImport;
+    private int adminRetryMaxAttempts;
+    private int adminRetryDeadlineMillis;
+    private int adminRetryBackoffMillis;
+    private String issuerUrl;
+    private int discoveryRefreshSeconds;
+    private boolean localTokenValidation;
+    private String tokenAudience;
+    private int tokenKeysRefreshSeconds;
+    private int tokenCacheSize;
+    private int tokenCacheMaxTtlSeconds;
+    private int rejectedTokenCacheTtlSeconds;
+    private int httpConnectTimeoutMillis;
+    private int httpReadTimeoutMillis;
+    private int httpMaxConnections;
+    private boolean httpVirtualThreads;
+    private int httpBulkheadWaitMillis;
+    private int circuitBreakerFailureThreshold;
+    private int circuitBreakerOpenSeconds;
+    private boolean asyncAuthentication;
+    private boolean tokenPrincipal;
 
 }
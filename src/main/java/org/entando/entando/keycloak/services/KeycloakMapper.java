@@ -1,6 +1,9 @@
 package org.entando.entando.keycloak.services;
 
 import com.agiletec.aps.system.services.user.User;
+import com.agiletec.aps.system.services.user.UserDetails;
+import java.util.ArrayList;
+import java.util.Collections;
 import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
 
 import static java.util.Optional.ofNullable;
@@ -16,6 +19,14 @@ class KeycloakMapper {
         return user;
     }
 
+    static User copyUserDetails(final UserDetails userDetails) {
+        final User user = userDetails.isCredentialsNotExpired() ? new User() : newUserCredentialsExpired();
+        user.setUsername(userDetails.getUsername());
+        user.setDisabled(userDetails.isDisabled());
+        user.setAuthorizations(new ArrayList<>(ofNullable(userDetails.getAuthorizations()).orElse(Collections.emptyList())));
+        return user;
+    }
+
     private static User newUserCredentialsExpired() {
         return new User() {
             {
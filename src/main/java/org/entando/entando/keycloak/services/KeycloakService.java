@@ -1,12 +1,19 @@
 package org.entando.entando.keycloak.services;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterators;
 import org.apache.commons.lang3.StringUtils;
 import org.entando.entando.KeycloakWiki;
 import org.entando.entando.aps.system.exception.RestServerError;
+import org.entando.entando.keycloak.services.http.KeycloakHttpClient;
+import org.entando.entando.keycloak.services.http.RetryExecutor;
 import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
-import org.entando.entando.keycloak.services.oidc.exception.OidcException;
-import org.entando.entando.keycloak.services.oidc.model.AuthResponse;
+import org.entando.entando.keycloak.services.oidc.model.AdminEvent;
+import org.entando.entando.keycloak.services.oidc.model.PartialImportResults;
 import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -18,27 +25,105 @@ import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.entando.entando.KeycloakWiki.wiki;
 
 @Service
-public class KeycloakService {
+public class KeycloakService implements DisposableBean {
+
+    private static final int DEFAULT_PAGE_SIZE = 500;
+    private static final int DEFAULT_SCAN_PARALLELISM = 4;
+    private static final int DEFAULT_DIRECTORY_SYNC_SECONDS = 30;
+    private static final int DEFAULT_USER_ID_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_PROVISIONING_PARALLELISM = 8;
+    private static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_RETRY_DEADLINE_MILLIS = 10_000;
+    private static final int DEFAULT_RETRY_BACKOFF_MILLIS = 200;
+
+    /**
+     * Usernames can be changed outside of Entando, cached ids are read again after a while.
+     */
+    private static final int USER_ID_CACHE_TTL_MINUTES = 10;
 
     private OpenIDConnectService oidcService;
     private KeycloakConfiguration configuration;
+    private KeycloakHttpClient httpClient;
+    private final String usersUrl;
+    private final String adminEventsUrl;
+    private final String partialImportUrl;
+    private final int provisioningParallelism;
+    private volatile boolean partialImportAvailable;
+    private final int pageSize;
+    private final int scanParallelism;
+    private final ServiceAccountTokenManager tokenManager;
+    private final RetryExecutor retryExecutor;
+    private final UserDirectoryReplica userDirectory;
+    /**
+     * With the user directory replica, searches match the same fields as its index, otherwise only the username.
+     */
+    private final String searchParameter;
+    private final Cache<String, String> userIds;
 
-    private String token;
+    public KeycloakService(final KeycloakConfiguration configuration, final OpenIDConnectService oidcService) {
+        this(configuration, oidcService, oidcService.getHttpClient());
+    }
 
     @Autowired
-    public KeycloakService(final KeycloakConfiguration configuration, final OpenIDConnectService oidcService) {
+    public KeycloakService(final KeycloakConfiguration configuration, final OpenIDConnectService oidcService,
+                           final KeycloakHttpClient httpClient) {
         this.configuration = configuration;
         this.oidcService = oidcService;
+        this.httpClient = httpClient;
+        this.usersUrl = String.format("%s/admin/realms/%s/users", configuration.getAuthUrl(), configuration.getRealm());
+        this.adminEventsUrl = String.format("%s/admin/realms/%s/admin-events", configuration.getAuthUrl(), configuration.getRealm());
+        this.partialImportUrl = String.format("%s/admin/realms/%s/partialImport", configuration.getAuthUrl(), configuration.getRealm());
+        this.provisioningParallelism = configuration.getUserProvisioningParallelism() > 0
+                ? configuration.getUserProvisioningParallelism() : DEFAULT_PROVISIONING_PARALLELISM;
+        this.partialImportAvailable = configuration.isUserProvisioningPartialImport();
+        this.tokenManager = new ServiceAccountTokenManager(oidcService);
+        this.retryExecutor = new RetryExecutor(
+                positiveOrDefault(configuration.getAdminRetryMaxAttempts(), DEFAULT_RETRY_MAX_ATTEMPTS),
+                Duration.ofMillis(positiveOrDefault(configuration.getAdminRetryDeadlineMillis(), DEFAULT_RETRY_DEADLINE_MILLIS)),
+                Duration.ofMillis(positiveOrDefault(configuration.getAdminRetryBackoffMillis(), DEFAULT_RETRY_BACKOFF_MILLIS)));
+        this.pageSize = configuration.getUserPageSize() > 0 ? configuration.getUserPageSize() : DEFAULT_PAGE_SIZE;
+        this.scanParallelism = configuration.getUserScanParallelism() > 0 ? configuration.getUserScanParallelism() : DEFAULT_SCAN_PARALLELISM;
+        this.userIds = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getUserIdCacheSize() > 0 ? configuration.getUserIdCacheSize() : DEFAULT_USER_ID_CACHE_SIZE)
+                .expireAfterWrite(USER_ID_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+                .build();
+        this.userDirectory = configuration.isUserDirectoryReplica()
+                ? new UserDirectoryReplica(this, configuration.getUserDirectorySyncSeconds() > 0
+                        ? configuration.getUserDirectorySyncSeconds() : DEFAULT_DIRECTORY_SYNC_SECONDS,
+                        configuration.getUserDirectoryResyncSeconds())
+                : null;
+        this.searchParameter = configuration.isUserDirectoryReplica() ? "search" : "username";
     }
 
     public List<UserRepresentation> listUsers() {
@@ -46,22 +131,150 @@ public class KeycloakService {
     }
 
     public List<UserRepresentation> listUsers(final String text) {
-        final String url = String.format("%s/admin/realms/%s/users", configuration.getAuthUrl(), configuration.getRealm());
+        return streamUsers(text).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns one page of the users whose username contains {@code text}, or of all the users when {@code text}
+     * is empty. With the user directory replica, the email, first and last name are matched too.
+     */
+    public List<UserRepresentation> listUsers(final String text, final int first, final int max) {
+        return listUsers(text, first, max, UserProjection.FULL);
+    }
+
+    /**
+     * Same as {@link #listUsers(String, int, int)}, reading only the {@link UserProjection} of each user.
+     */
+    public <T extends UsernameRepresentation> List<T> listUsers(final String text, final int first, final int max,
+                                                                final UserProjection<T> projection) {
+        final Map<String, String> params = new HashMap<>();
+        if (StringUtils.isNotEmpty(text)) {
+            params.put(searchParameter, text);
+        }
+        params.put("first", String.valueOf(first));
+        params.put("max", String.valueOf(max));
+        params.put("briefRepresentation", String.valueOf(projection.isBriefRepresentation()));
+        final ResponseEntity<T[]> response = this.executeRequest(usersUrl,
+                HttpMethod.GET, createEntity(), projection.getArrayType(), params);
+        return response.getBody() != null ? Arrays.asList(response.getBody()) : Collections.emptyList();
+    }
+
+    public Stream<UserRepresentation> streamUsers(final String text) {
+        return streamUsers(text, UserProjection.FULL);
+    }
+
+    /**
+     * Lazily pages through the users matching {@code text}, {@code keycloak.user.page.size} at a time: a page is
+     * requested only when the previous one has been consumed, so only one page at a time is kept in memory.
+     */
+    public <T extends UsernameRepresentation> Stream<T> streamUsers(final String text, final UserProjection<T> projection) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new UserPageIterator<>(text, 0, projection),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Counts the users matching {@code text}, or all the users when {@code text} is empty.
+     */
+    public int countUsers(final String text) {
         final Map<String, String> params = StringUtils.isEmpty(text)
                 ? Collections.emptyMap()
-                : Collections.singletonMap("username", text);
-        final ResponseEntity<UserRepresentation[]> response = this.executeRequest(url,
-                HttpMethod.GET, createEntity(), UserRepresentation[].class, params);
+                : Collections.singletonMap(searchParameter, text);
+        final ResponseEntity<Integer> response = this.executeRequest(usersUrl + "/count",
+                HttpMethod.GET, createEntity(), Integer.class, params);
+        return response.getBody() != null ? response.getBody() : 0;
+    }
+
+    /**
+     * Same as {@link #streamUsers(String)}, but fetching up to {@code keycloak.user.scan.parallelism} pages at once.
+     * The pages are planned from {@link #countUsers(String)}, users created meanwhile are read by paging on past
+     * the last planned page. With {@code ordered} false pages are returned as soon as they arrive.
+     */
+    public Stream<UserRepresentation> scanUsers(final String text, final boolean ordered) {
+        return scanUsers(text, ordered, UserProjection.FULL);
+    }
+
+    public <T extends UsernameRepresentation> Stream<T> scanUsers(final String text, final boolean ordered,
+                                                                  final UserProjection<T> projection) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new UserScanIterator<>(text, ordered, projection),
+                ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Finds the user with exactly the given username, with a single request.
+     */
+    public Optional<UserRepresentation> findUserByUsername(final String username) {
+        return findUserByUsername(username, UserProjection.FULL);
+    }
+
+    private <T extends UsernameRepresentation> Optional<T> findUserByUsername(final String username,
+                                                                             final UserProjection<T> projection) {
+        if (StringUtils.isBlank(username)) {
+            return Optional.empty();
+        }
+        final Map<String, String> params = new HashMap<>();
+        params.put("username", username);
+        params.put("exact", "true");
+        params.put("briefRepresentation", String.valueOf(projection.isBriefRepresentation()));
+        final ResponseEntity<T[]> response = this.executeRequest(usersUrl,
+                HttpMethod.GET, createEntity(), projection.getArrayType(), params);
+        // Keycloak versions before 11 ignore exact and search by substring
+        final Optional<T> user = Optional.ofNullable(response.getBody()).map(Arrays::stream)
+                .flatMap(users -> users.filter(found -> username.equalsIgnoreCase(found.getUsername())).findFirst());
+        user.ifPresent(found -> cacheUserId(found.getUsername(), found.getId()));
+        return user;
+    }
+
+    /**
+     * The id of the user with the given username, from a bounded cache of {@code keycloak.user.id.cache.size}
+     * entries or else from {@link #findUserByUsername(String)}.
+     */
+    public Optional<String> getUserId(final String username) {
+        if (StringUtils.isBlank(username)) {
+            return Optional.empty();
+        }
+        final String id = userIds.getIfPresent(username.toLowerCase(Locale.ROOT));
+        return id != null ? Optional.of(id) : findUserByUsername(username, UserProjection.USERNAME).map(UsernameRepresentation::getId);
+    }
+
+    public void cacheUserId(final String username, final String uuid) {
+        userIds.put(username.toLowerCase(Locale.ROOT), uuid);
+    }
+
+    public void invalidateUserId(final String username) {
+        userIds.invalidate(username.toLowerCase(Locale.ROOT));
+    }
+
+    public Optional<UserRepresentation> getUser(final String uuid) {
+        try {
+            return Optional.ofNullable(this.executeRequest(usersUrl + "/" + uuid, HttpMethod.GET, createEntity(),
+                    UserRepresentation.class, Collections.emptyMap()).getBody());
+        } catch (HttpClientErrorException.NotFound e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns one page of the admin events on users, newest first, starting from the day of {@code since}.
+     * Keycloak only filters by day, so older events of the same day can be returned.
+     */
+    public List<AdminEvent> listUserAdminEvents(final long since, final int first, final int max) {
+        final Map<String, String> params = new HashMap<>();
+        params.put("resourceTypes", "USER");
+        // the day is read in the Keycloak time zone, starting a day earlier covers any offset
+        params.put("dateFrom", Instant.ofEpochMilli(since).atZone(ZoneOffset.UTC).toLocalDate().minusDays(1).toString());
+        params.put("first", String.valueOf(first));
+        params.put("max", String.valueOf(max));
+        final ResponseEntity<AdminEvent[]> response = this.executeRequest(adminEventsUrl,
+                HttpMethod.GET, createEntity(), AdminEvent[].class, params);
         return response.getBody() != null ? Arrays.asList(response.getBody()) : Collections.emptyList();
     }
 
     public void removeUser(final String uuid) {
-        final String url = String.format("%s/admin/realms/%s/users/%s", configuration.getAuthUrl(), configuration.getRealm(), uuid);
-        this.executeRequest(url, HttpMethod.DELETE, createEntity());
+        this.executeRequest(usersUrl + "/" + uuid, HttpMethod.DELETE, createEntity());
     }
 
     public void resetPassword(final String uuid, final String password, final Boolean temporary) {
-        final String url = String.format("%s/admin/realms/%s/users/%s/reset-password", configuration.getAuthUrl(), configuration.getRealm(), uuid);
+        final String url = usersUrl + "/" + uuid + "/reset-password";
         final Map<String, Object> body = new HashMap<>();
         body.put("value", password);
         body.put("temporary", temporary);
@@ -70,16 +283,89 @@ public class KeycloakService {
     }
 
     public String createUser(final UserRepresentation user) {
-        final String url = String.format("%s/admin/realms/%s/users", configuration.getAuthUrl(), configuration.getRealm());
-        final ResponseEntity<Void> response = this.executeRequest(url, HttpMethod.POST, createEntity(user));
+        final ResponseEntity<Void> response = this.executeRequest(usersUrl, HttpMethod.POST, createEntity(user));
         return Optional.ofNullable(response.getHeaders().getLocation())
                 .map(location -> location.getPath().replaceAll(".*/([^/]+)$", "$1"))
                 .orElseThrow(() -> new RuntimeException("User id response shouldn't return null from Keycloak"));
     }
 
+    /**
+     * Creates the users with a single request through the realm partial import, skipping the existing ones.
+     * Returns empty without sending anything when {@code keycloak.user.provisioning.partial.import} is disabled
+     * or after Keycloak answered that it doesn't support the partial import.
+     */
+    public Optional<PartialImportResults> importUsers(final List<Map<String, Object>> users) {
+        if (!partialImportAvailable) {
+            return Optional.empty();
+        }
+        final Map<String, Object> body = new HashMap<>();
+        body.put("ifResourceExists", "SKIP");
+        body.put("users", users);
+        try {
+            return Optional.ofNullable(this.executeRequest(partialImportUrl, HttpMethod.POST, createEntity(body),
+                    PartialImportResults.class, Collections.emptyMap()).getBody());
+        } catch (HttpClientErrorException.NotFound e) {
+            partialImportAvailable = false;
+            return Optional.empty();
+        }
+    }
+
+    public boolean isPartialImportAvailable() {
+        return partialImportAvailable;
+    }
+
+    public int getProvisioningParallelism() {
+        return provisioningParallelism;
+    }
+
     public void updateUser(final UserRepresentation user) {
-        final String url = String.format("%s/admin/realms/%s/users/%s", configuration.getAuthUrl(), configuration.getRealm(), user.getId());
-        this.executeRequest(url, HttpMethod.PUT, createEntity(user));
+        this.executeRequest(usersUrl + "/" + user.getId(), HttpMethod.PUT, createEntity(user));
+    }
+
+    /**
+     * Updates only the given attributes of the user, Keycloak leaves the missing ones unchanged.
+     */
+    public void updateUser(final String uuid, final Map<String, Object> attributes) {
+        this.executeRequest(usersUrl + "/" + uuid, HttpMethod.PUT, createEntity(attributes));
+    }
+
+    /**
+     * Runs calls to the admin API on the Keycloak I/O executor, letting bulk operations issue many of them
+     * at once without a dedicated thread pool.
+     */
+    public <T> CompletableFuture<T> executeAsync(final Supplier<T> call) {
+        return httpClient.getBlockingExecutor().supplyAsync(call);
+    }
+
+    public ServiceAccountTokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    /**
+     * The retries of the admin API calls by reason, see {@link RetryExecutor#getMetrics()}.
+     */
+    public Map<String, Long> getRetryMetrics() {
+        return retryExecutor.getMetrics();
+    }
+
+    /**
+     * The in-memory copy of the realm users, when {@code keycloak.user.directory.replica} is enabled.
+     * The copy starts loading at the first call and can be used for reads once {@link UserDirectoryReplica#isReady()}.
+     */
+    public Optional<UserDirectoryReplica> getUserDirectory() {
+        if (userDirectory == null) {
+            return Optional.empty();
+        }
+        userDirectory.start();
+        return Optional.of(userDirectory);
+    }
+
+    @Override
+    public void destroy() {
+        tokenManager.shutdown();
+        if (userDirectory != null) {
+            userDirectory.shutdown();
+        }
     }
 
     private <T> HttpEntity<T> createEntity() {
@@ -87,8 +373,14 @@ public class KeycloakService {
     }
 
     private <T> HttpEntity<T> createEntity(final T body) {
+        return createEntity(body, null);
+    }
+
+    private <T> HttpEntity<T> createEntity(final T body, final String token) {
         final HttpHeaders headers = new HttpHeaders();
-        headers.add("Authorization", "Bearer " + token);
+        if (token != null) {
+            headers.add("Authorization", "Bearer " + token);
+        }
         if (body != null) {
             headers.add("Content-Type", "application/json");
         }
@@ -99,51 +391,162 @@ public class KeycloakService {
     // Internal methods
     // ---
 
+    private class UserScanIterator<T extends UsernameRepresentation> implements Iterator<T> {
+
+        private final String text;
+        private final boolean ordered;
+        private final UserProjection<T> projection;
+        private final int pages;
+        private final Deque<CompletableFuture<UserPage<T>>> pending = new ArrayDeque<>();
+        private final BlockingQueue<CompletableFuture<UserPage<T>>> completed = new LinkedBlockingQueue<>();
+        private int submitted;
+        private int received;
+        private Iterator<T> page = Collections.emptyIterator();
+
+        private UserScanIterator(final String text, final boolean ordered, final UserProjection<T> projection) {
+            this.text = text;
+            this.ordered = ordered;
+            this.projection = projection;
+            this.pages = (countUsers(text) + pageSize - 1) / pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext()) {
+                if (received == pages) {
+                    return false;
+                }
+                submitPages();
+                final UserPage<T> next = await(ordered ? pending.poll() : takeCompleted());
+                received++;
+                page = next.users.iterator();
+                if (next.first == (pages - 1) * pageSize && next.users.size() == pageSize) {
+                    // the realm grew after counting the users
+                    page = Iterators.concat(page, new UserPageIterator<>(text, next.first + pageSize, projection));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        private void submitPages() {
+            while (submitted < pages && submitted - received < scanParallelism) {
+                final int first = submitted++ * pageSize;
+                final CompletableFuture<UserPage<T>> future = executeAsync(
+                        () -> new UserPage<>(first, listUsers(text, first, pageSize, projection)));
+                if (ordered) {
+                    pending.add(future);
+                } else {
+                    future.whenComplete((result, e) -> completed.add(future));
+                }
+            }
+        }
+
+        private CompletableFuture<UserPage<T>> takeCompleted() {
+            try {
+                return completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning the users", e);
+            }
+        }
+
+        private UserPage<T> await(final CompletableFuture<UserPage<T>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+
+    private static final class UserPage<T> {
+
+        private final int first;
+        private final List<T> users;
+
+        private UserPage(final int first, final List<T> users) {
+            this.first = first;
+            this.users = users;
+        }
+    }
+
+    private class UserPageIterator<T extends UsernameRepresentation> implements Iterator<T> {
+
+        private final String text;
+        private final UserProjection<T> projection;
+        private List<T> page = Collections.emptyList();
+        private int index;
+        private int first;
+        private boolean lastPage;
+
+        private UserPageIterator(final String text, final int first, final UserProjection<T> projection) {
+            this.text = text;
+            this.first = first;
+            this.projection = projection;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (index < page.size()) {
+                return true;
+            }
+            if (lastPage) {
+                return false;
+            }
+            page = listUsers(text, first, pageSize, projection);
+            index = 0;
+            first += page.size();
+            lastPage = page.size() < pageSize;
+            return !page.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(index++);
+        }
+    }
+
     private <T> ResponseEntity<Void> executeRequest(final String url, final HttpMethod method, final HttpEntity<T> entity) {
         return this.executeRequest(url, method, entity, Void.class, Collections.emptyMap());
     }
 
     private <T, Y> ResponseEntity<Y> executeRequest(final String url, final HttpMethod method, final HttpEntity<T> entity,
                                                     final Class<Y> result, final Map<String, String> params) {
-        return executeRequest(url, method, entity, result, params, 0);
-    }
-
-    private <T, Y> ResponseEntity<Y> executeRequest(final String url, final HttpMethod method, final HttpEntity<T> entity,
-                                                    final Class<Y> result, final Map<String, String> params, int retryCount) {
-        authenticate();
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
+        final UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(url);
+        params.forEach(builder::queryParam);
+        final URI uri = builder.build().toUri();
+        final AtomicReference<String> token = new AtomicReference<>();
         try {
-            final UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(url);
-            params.forEach(builder::queryParam);
-
-            return restTemplate.exchange(builder.build().toUri(), method, createEntity(entity.getBody()), result);
+            return retryExecutor.execute(!HttpMethod.POST.equals(method), () -> {
+                token.set(tokenManager.getToken());
+                return restTemplate.exchange(uri, method, createEntity(entity.getBody(), token.get()), result);
+            }, () -> tokenManager.invalidate(token.get()));
         } catch (HttpClientErrorException e) {
-            if (HttpStatus.FORBIDDEN.equals(e.getStatusCode()) || (HttpStatus.UNAUTHORIZED.equals(e.getStatusCode()) && retryCount > 10)) {
+            // a 401 is left only when a new token was refused too
+            if (HttpStatus.FORBIDDEN.equals(e.getStatusCode()) || HttpStatus.UNAUTHORIZED.equals(e.getStatusCode())) {
                 throw new RestServerError("There was an error while trying to load user because the " +
                         "client on Keycloak doesn't have permission to do that. " +
                         "The client needs to have Service Accounts enabled and the permission 'realm-admin' on client 'realm-management'. " +
                         "For more details, refer to the wiki " + wiki(KeycloakWiki.EN_APP_CLIENT_FORBIDDEN), e);
             }
-            if (HttpStatus.UNAUTHORIZED.equals(e.getStatusCode())) {
-                invalidateToken();
-                return this.executeRequest(url, method, entity, result, params, retryCount + 1);
-            }
             throw e;
         }
     }
 
-    private void authenticate() {
-        if (token == null) {
-            try {
-                final AuthResponse authResponse = oidcService.authenticateAPI();
-                token = authResponse.getAccessToken();
-            } catch (OidcException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
-    private void invalidateToken() {
-        this.token = null;
+    private static int positiveOrDefault(final int value, final int defaultValue) {
+        return value > 0 ? value : defaultValue;
     }
 
 }
@@ -9,67 +9,132 @@ import com.agiletec.aps.system.services.user.IUserManager;
 import com.agiletec.aps.system.services.user.User;
 import com.agiletec.aps.system.services.user.UserDetails;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
 import org.entando.entando.aps.system.exception.ResourceNotFoundException;
 import org.entando.entando.ent.exception.EntException;
 import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
 import org.entando.entando.keycloak.services.oidc.exception.CredentialsExpiredException;
 import org.entando.entando.keycloak.services.oidc.exception.OidcException;
 import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpClientErrorException;
 
 public class KeycloakUserManager extends AbstractParameterizableService implements IUserManager {
 
     private static final Logger log = LoggerFactory.getLogger(KeycloakUserManager.class);
 
     private static final String ERRCODE_USER_NOT_FOUND = "1";
+    static final String UPDATE_PASSWORD = "UPDATE_PASSWORD";
 
     private final IAuthorizationManager authorizationManager;
     private final KeycloakService keycloakService;
     private final OpenIDConnectService oidcService;
+    private final UserDetailsCache userCache;
+    private final ProvisionedUserRegistry provisionedUsers;
 
     private List<String> parameterNames = new ArrayList<>();
 
     public KeycloakUserManager(final IAuthorizationManager authorizationManager,
             final KeycloakService keycloakService,
             final OpenIDConnectService oidcService) {
+        this(authorizationManager, keycloakService, oidcService, null, null);
+    }
+
+    /**
+     * With a {@code userCache}, the users built by {@link #getUser(String)} are cached with their authorizations.
+     * The {@code provisionedUsers} forget the removed users, so that a user added again gets the default authorizations.
+     */
+    public KeycloakUserManager(final IAuthorizationManager authorizationManager,
+            final KeycloakService keycloakService,
+            final OpenIDConnectService oidcService,
+            final UserDetailsCache userCache,
+            final ProvisionedUserRegistry provisionedUsers) {
         this.authorizationManager = authorizationManager;
         this.keycloakService = keycloakService;
         this.oidcService = oidcService;
+        this.userCache = userCache;
+        this.provisionedUsers = provisionedUsers;
     }
 
     @Override
     public List<String> getUsernames() {
-        return keycloakService.listUsers().stream()
-                .map(org.entando.entando.keycloak.services.oidc.model.UserRepresentation::getUsername)
+        return readableUserDirectory()
+                .map(directory -> directory.all().map(UserRepresentation::getUsername))
+                .orElseGet(() -> keycloakService.scanUsers(null, true, UserProjection.USERNAME).map(UsernameRepresentation::getUsername))
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<String> searchUsernames(final String text) {
-        return list(text)
-                .map(UserRepresentation::getUsername)
+        return list(text, UserProjection.USERNAME)
+                .map(UsernameRepresentation::getUsername)
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<UserDetails> getUsers() {
-        return keycloakService.listUsers().stream()
+        return allUsers()
                 .map(KeycloakMapper::convertUserDetails)
                 .collect(Collectors.toList());
     }
 
     @Override
     public List<UserDetails> searchUsers(final String text) {
-        return list(text)
+        return list(text, UserProjection.FULL)
                 .map(KeycloakMapper::convertUserDetails)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Returns one page of the users matching {@code filter}, or of all the users when {@code filter} is empty,
+     * sorted by username. Service account users are left out: without the user directory copy, the page is
+     * read from Keycloak with room for the service accounts matching {@code filter}, which are few.
+     */
+    public List<UserDetails> getUsers(final int offset, final int limit, final String filter) {
+        final Optional<UserDirectoryReplica> directory = readableUserDirectory();
+        if (directory.isPresent()) {
+            return directory.get().search(filter).skip(offset).limit(limit)
+                    .map(KeycloakMapper::convertUserDetails)
+                    .collect(Collectors.toList());
+        }
+        if (limit == 0) {
+            return new ArrayList<>();
+        }
+        final List<String> serviceAccounts = getServiceAccounts(filter);
+        final List<UserRepresentation> window = keycloakService.listUsers(filter, offset,
+                (int) Math.min((long) limit + serviceAccounts.size(), Integer.MAX_VALUE));
+        final List<UserDetails> page = new ArrayList<>();
+        for (int i = 0; i < window.size() && page.size() < limit; i++) {
+            final UserRepresentation user = window.get(i);
+            // Keycloak sorts by username: the window starts with the users of previous pages that the
+            // service accounts sorted before them pushed forward
+            if (!UserSearchIndex.isServiceAccount(user) && i >= countBefore(serviceAccounts, user.getUsername())) {
+                page.add(KeycloakMapper.convertUserDetails(user));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Counts the users {@link #getUsers(int, int, String)} pages through, service accounts excluded.
+     */
+    public int countUsers(final String filter) {
+        final Optional<UserDirectoryReplica> directory = readableUserDirectory();
+        if (directory.isPresent()) {
+            return (int) directory.get().search(filter).count();
+        }
+        return Math.max(keycloakService.countUsers(filter) - getServiceAccounts(filter).size(), 0);
+    }
+
     @Override
     public void removeUser(final UserDetails user) {
         removeUser(user.getUsername());
@@ -77,18 +142,29 @@ public class KeycloakUserManager extends AbstractParameterizableService implemen
 
     @Override
     public void removeUser(final String username) {
-        final UserRepresentation userRep = getUserRepresentation(username)
-                .orElseThrow(() -> new ResourceNotFoundException(ERRCODE_USER_NOT_FOUND, "user", username));
-        keycloakService.removeUser(userRep.getId());
+        final String id = writeUser(username, keycloakService::removeUser);
+        keycloakService.invalidateUserId(username);
+        invalidateUser(username);
+        if (provisionedUsers != null) {
+            provisionedUsers.remove(username);
+        }
+        keycloakService.getUserDirectory().ifPresent(directory -> directory.remove(id));
     }
 
     @Override
     public void updateUser(final UserDetails user) {
-        final UserRepresentation userRep = getUserRepresentation(user.getUsername())
-                .orElseThrow(() -> new ResourceNotFoundException(ERRCODE_USER_NOT_FOUND, "user", user.getUsername()));
-        userRep.setEnabled(!user.isDisabled());
-        ofNullable(user.getPassword()).ifPresent(password -> updateUserPassword(userRep, password, true));
-        keycloakService.updateUser(userRep);
+        final boolean enabled = !user.isDisabled();
+        final String id = writeUser(user.getUsername(), userId -> {
+            ofNullable(user.getPassword()).ifPresent(password -> keycloakService.resetPassword(userId, password, true));
+            keycloakService.updateUser(userId, Collections.singletonMap("enabled", enabled));
+        });
+        invalidateUser(user.getUsername());
+        keycloakService.getUserDirectory().ifPresent(directory -> directory.update(id, userRep -> {
+            userRep.setEnabled(enabled);
+            if (user.getPassword() != null) {
+                requirePasswordUpdate(userRep);
+            }
+        }));
     }
 
     @Override
@@ -98,9 +174,13 @@ public class KeycloakUserManager extends AbstractParameterizableService implemen
 
     @Override
     public void changePassword(final String username, final String password) {
-        final UserRepresentation user = getUserRepresentation(username)
-                .orElseThrow(() -> new ResourceNotFoundException(ERRCODE_USER_NOT_FOUND, "user", username));
-        updateUserPassword(user, password, false);
+        final String id = writeUser(username, userId -> {
+            keycloakService.resetPassword(userId, password, false);
+            keycloakService.updateUser(userId, Collections.singletonMap("requiredActions", emptyList()));
+        });
+        invalidateUser(username);
+        keycloakService.getUserDirectory().ifPresent(directory -> directory.update(id,
+                userRep -> userRep.setRequiredActions(emptyList())));
     }
 
     @Override
@@ -109,15 +189,43 @@ public class KeycloakUserManager extends AbstractParameterizableService implemen
         userRep.setUsername(user.getUsername());
         userRep.setEnabled(!user.isDisabled());
         userRep.setId(keycloakService.createUser(userRep));
-        updateUserPassword(userRep, user.getPassword(), true);
+        invalidateUser(userRep.getUsername());
+        keycloakService.cacheUserId(userRep.getUsername(), userRep.getId());
+        try {
+            keycloakService.resetPassword(userRep.getId(), user.getPassword(), true);
+        } catch (RuntimeException e) {
+            // no user is left without a password, adding it again must be possible
+            keycloakService.removeUser(userRep.getId());
+            keycloakService.invalidateUserId(userRep.getUsername());
+            invalidateUser(userRep.getUsername());
+            throw e;
+        }
+        requirePasswordUpdate(userRep);
+        keycloakService.getUserDirectory().ifPresent(directory -> directory.put(userRep));
+    }
+
+    /**
+     * Adds many users at once, reading them from the stream only as fast as Keycloak takes them. Users that
+     * already exist are skipped, see {@link UserProvisioningReport} on resuming a provisioning.
+     */
+    public UserProvisioningReport addUsers(final Stream<UserDetails> users) {
+        return new BulkUserProvisioner(keycloakService, this).provision(users);
     }
 
     @Override
     public UserDetails getUser(final String username) {
-        return getUserRepresentation(username)
+        final Optional<UserDetails> cached = userCache != null ? userCache.get(username) : Optional.empty();
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        final UserDetails user = findUser(username)
                 .map(KeycloakMapper::convertUserDetails)
                 .map(this::getAuthorizations)
                 .orElse(null);
+        if (user != null && userCache != null) {
+            userCache.put(user);
+        }
+        return user;
     }
 
     private UserDetails getAuthorizations(final User user) {
@@ -149,23 +257,100 @@ public class KeycloakUserManager extends AbstractParameterizableService implemen
         return user;
     }
 
-    private Stream<UserRepresentation> list(final String text) {
-        final List<UserRepresentation> list = keycloakService.listUsers(text);
+    private Stream<UserRepresentation> allUsers() {
+        return readableUserDirectory()
+                .map(UserDirectoryReplica::all)
+                .orElseGet(() -> keycloakService.scanUsers(null, true));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends UsernameRepresentation> Stream<T> list(final String text, final UserProjection<T> projection) {
+        final Optional<UserDirectoryReplica> directory = readableUserDirectory();
+        if (directory.isPresent()) {
+            // the directory search index already leaves out the Service Account Users,
+            // its full representations can be read as any projection
+            return (Stream<T>) directory.get().search(text);
+        }
         // workaround to a bug on keycloak to not list Service Account Users
-        return list.stream().filter(usr -> !usr.getUsername().startsWith("service-account-"));
+        return keycloakService.streamUsers(text, projection).filter(usr -> !UserSearchIndex.isServiceAccount(usr));
+    }
+
+    /**
+     * The lower case usernames of the service accounts matching {@code filter}, sorted.
+     */
+    private List<String> getServiceAccounts(final String filter) {
+        final String text = StringUtils.defaultString(filter).toLowerCase(Locale.ROOT);
+        return keycloakService.streamUsers(UserSearchIndex.SERVICE_ACCOUNT_PREFIX, UserProjection.USERNAME)
+                .filter(UserSearchIndex::isServiceAccount)
+                .map(user -> user.getUsername().toLowerCase(Locale.ROOT))
+                .filter(username -> username.contains(text))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static int countBefore(final List<String> sortedUsernames, final String username) {
+        final int position = Collections.binarySearch(sortedUsernames, username.toLowerCase(Locale.ROOT));
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private Optional<UserRepresentation> findUser(final String username) {
+        final Optional<UserDirectoryReplica> directory = readableUserDirectory();
+        final Optional<UserRepresentation> replicated = directory.flatMap(replica -> replica.findByUsername(username));
+        if (replicated.isPresent()) {
+            return replicated;
+        }
+        // users created without an admin event, e.g. self-registered or federated, are missing from the replica
+        final Optional<UserRepresentation> user = keycloakService.findUserByUsername(username);
+        directory.ifPresent(replica -> user.ifPresent(replica::put));
+        return user;
+    }
+
+    private void invalidateUser(final String username) {
+        if (userCache != null) {
+            userCache.invalidate(username);
+        }
     }
 
-    private void updateUserPassword(final UserRepresentation user, final String password, final boolean temporary) {
-        keycloakService.resetPassword(user.getId(), password, temporary);
+    private Optional<UserDirectoryReplica> readableUserDirectory() {
+        return keycloakService.getUserDirectory().filter(UserDirectoryReplica::isReady);
+    }
 
-        if (!temporary) {
-            user.setRequiredActions(emptyList());
-            keycloakService.updateUser(user);
+    /**
+     * Keycloak requires a password update after a temporary password is set, this mirrors it on the
+     * local representation.
+     */
+    private static void requirePasswordUpdate(final UserRepresentation user) {
+        if (user.getRequiredActions() == null || !user.getRequiredActions().contains(UPDATE_PASSWORD)) {
+            final List<String> requiredActions = new ArrayList<>(ofNullable(user.getRequiredActions()).orElse(emptyList()));
+            requiredActions.add(UPDATE_PASSWORD);
+            user.setRequiredActions(requiredActions);
         }
     }
 
-    private Optional<UserRepresentation> getUserRepresentation(final String username) {
-        return keycloakService.listUsers(username).stream().filter(f->f.getUsername().equals(username)).findFirst();
+    /**
+     * Runs a write on the user with the given username, resolving the id from the cache. When the cached id
+     * is stale, because the user was removed or recreated outside of Entando, the id is looked up again and
+     * the write retried once.
+     */
+    private String writeUser(final String username, final Consumer<String> write) {
+        final String id = getUserId(username);
+        try {
+            write.accept(id);
+            return id;
+        } catch (HttpClientErrorException.NotFound e) {
+            keycloakService.invalidateUserId(username);
+            final String currentId = getUserId(username);
+            if (currentId.equals(id)) {
+                throw e;
+            }
+            write.accept(currentId);
+            return currentId;
+        }
+    }
+
+    private String getUserId(final String username) {
+        return keycloakService.getUserId(username)
+                .orElseThrow(() -> new ResourceNotFoundException(ERRCODE_USER_NOT_FOUND, "user", username));
     }
 
     @Override
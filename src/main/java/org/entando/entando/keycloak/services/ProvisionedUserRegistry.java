@@ -0,0 +1,160 @@
+package org.entando.entando.keycloak.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * The users that already got the default authorizations, so that they are assigned once per user rather than
+ * checked on every request.
+ * <p>
+ * The registry belongs to a version of the default authorizations, identified by a fingerprint: when the
+ * configuration changes every user is provisioned again. With a file the registry survives restarts, the
+ * fingerprint is on the first line followed by a username per line. Users are appended, a removed user is
+ * appended as a tombstone ({@code -username}, a username starting with {@code -} or {@code \} is escaped with
+ * {@code \}). The file is rewritten with the current users only when the fingerprint changes or when the dead
+ * lines outnumber the current users, so that removals cost a line each.
+ */
+@Service
+public class ProvisionedUserRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ProvisionedUserRegistry.class);
+
+    private static final String TOMBSTONE = "-";
+    private static final String ESCAPE = "\\";
+
+    private final Path file;
+    private final Set<String> usernames = ConcurrentHashMap.newKeySet();
+    private volatile String fingerprint;
+    private int deadLines;
+
+    @Autowired
+    public ProvisionedUserRegistry(final KeycloakConfiguration configuration) {
+        this(StringUtils.isEmpty(configuration.getProvisionedUsersFile())
+                ? null : Paths.get(configuration.getProvisionedUsersFile()));
+    }
+
+    ProvisionedUserRegistry(final Path file) {
+        this.file = file;
+        load();
+    }
+
+    boolean isProvisioned(final String username, final String currentFingerprint) {
+        return username != null && currentFingerprint.equals(fingerprint) && usernames.contains(username);
+    }
+
+    synchronized void markProvisioned(final String username, final String currentFingerprint) {
+        if (username == null) {
+            return;
+        }
+        if (!currentFingerprint.equals(fingerprint)) {
+            reset(currentFingerprint);
+        }
+        if (usernames.add(username)) {
+            append(escape(username));
+        }
+    }
+
+    synchronized void remove(final String username) {
+        if (username == null || !usernames.remove(username)) {
+            return;
+        }
+        if (++deadLines > usernames.size()) {
+            rewrite();
+        } else {
+            append(TOMBSTONE + escape(username));
+        }
+    }
+
+    int size() {
+        return usernames.size();
+    }
+
+    private void reset(final String newFingerprint) {
+        usernames.clear();
+        fingerprint = newFingerprint;
+        rewrite();
+    }
+
+    private void rewrite() {
+        deadLines = 0;
+        if (file == null) {
+            return;
+        }
+        final List<String> lines = new ArrayList<>(usernames.size() + 1);
+        lines.add(fingerprint);
+        usernames.stream().map(ProvisionedUserRegistry::escape).forEach(lines::add);
+        try {
+            final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, lines, StandardCharsets.UTF_8);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to save the provisioned users to {}", file, e);
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (!lines.isEmpty()) {
+                fingerprint = lines.get(0);
+                final List<String> entries = lines.subList(1, lines.size());
+                entries.forEach(this::replay);
+                deadLines = entries.size() - usernames.size();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the provisioned users from {}, they will be provisioned again", file, e);
+        }
+    }
+
+    private void replay(final String line) {
+        if (line.startsWith(ESCAPE)) {
+            usernames.add(line.substring(ESCAPE.length()));
+        } else if (line.startsWith(TOMBSTONE)) {
+            usernames.remove(unescape(line.substring(TOMBSTONE.length())));
+        } else if (!line.isEmpty()) {
+            usernames.add(line);
+        }
+    }
+
+    private static String escape(final String username) {
+        return username.startsWith(TOMBSTONE) || username.startsWith(ESCAPE) ? ESCAPE + username : username;
+    }
+
+    private static String unescape(final String entry) {
+        return entry.startsWith(ESCAPE) ? entry.substring(ESCAPE.length()) : entry;
+    }
+
+    private void append(final String line) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.write(file, Collections.singletonList(line), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("Unable to save the provisioned users to {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.entando.entando.keycloak.services;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.entando.entando.keycloak.services.oidc.BackgroundScheduler;
+import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
+import org.entando.entando.keycloak.services.oidc.SingleFlight;
+import org.entando.entando.keycloak.services.oidc.exception.OidcException;
+import org.entando.entando.keycloak.services.oidc.model.AuthResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the service account token used for the admin API, renewed in background before it expires.
+ */
+public class ServiceAccountTokenManager {
+
+    private static final Logger log = LoggerFactory.getLogger(ServiceAccountTokenManager.class);
+
+    private static final long REFRESH_MARGIN_MILLIS = 30_000;
+    private static final long EXPIRY_SKEW_MILLIS = 5_000;
+    private static final String TOKEN_KEY = "service-account";
+
+    private final OpenIDConnectService oidcService;
+    private final SingleFlight<String, ServiceAccountToken> authentications = new SingleFlight<>();
+
+    private volatile ServiceAccountToken current;
+    private final BackgroundScheduler scheduler = new BackgroundScheduler("keycloak-service-account-token");
+
+    public ServiceAccountTokenManager(final OpenIDConnectService oidcService) {
+        this.oidcService = oidcService;
+    }
+
+    public String getToken() {
+        final ServiceAccountToken token = current;
+        if (token != null && token.isUsable()) {
+            return token.accessToken;
+        }
+        return authentications.execute(TOKEN_KEY, this::authenticate).accessToken;
+    }
+
+    /**
+     * Discards the token after Keycloak refused it, unless another thread already replaced it.
+     */
+    public void invalidate(final String accessToken) {
+        final ServiceAccountToken token = current;
+        if (token != null && token.accessToken.equals(accessToken)) {
+            current = null;
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private ServiceAccountToken authenticate() {
+        final ServiceAccountToken token = current;
+        if (token != null && token.isUsable() && !token.isRefreshDue()) {
+            return token;
+        }
+        final AuthResponse authResponse;
+        try {
+            authResponse = oidcService.authenticateAPI();
+        } catch (OidcException e) {
+            throw new RuntimeException(e);
+        }
+        final ServiceAccountToken authenticated = new ServiceAccountToken(authResponse.getAccessToken(),
+                NumberUtils.toLong(authResponse.getExpiresIn(), 0));
+        current = authenticated;
+        scheduleRefresh(authenticated);
+        return authenticated;
+    }
+
+    private void scheduleRefresh(final ServiceAccountToken token) {
+        if (token.refreshAt == Long.MAX_VALUE) {
+            return;
+        }
+        final long delay = Math.max(token.refreshAt - System.currentTimeMillis(), 0);
+        scheduler.schedule(() -> {
+            try {
+                authentications.execute(TOKEN_KEY, this::authenticate);
+            } catch (RuntimeException e) {
+                log.warn("Unable to renew the service account token, it will be renewed on the next admin call", e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class ServiceAccountToken {
+
+        private final String accessToken;
+        private final long refreshAt;
+        private final long usableUntil;
+
+        private ServiceAccountToken(final String accessToken, final long expiresInSeconds) {
+            this.accessToken = accessToken;
+            if (expiresInSeconds <= 0) {
+                // no lifetime advertised, used until Keycloak refuses it
+                this.refreshAt = Long.MAX_VALUE;
+                this.usableUntil = Long.MAX_VALUE;
+            } else {
+                final long lifetime = TimeUnit.SECONDS.toMillis(expiresInSeconds);
+                final long margin = Math.min(REFRESH_MARGIN_MILLIS, lifetime / 4);
+                final long expiresAt = System.currentTimeMillis() + lifetime;
+                this.refreshAt = expiresAt - margin;
+                this.usableUntil = expiresAt - Math.min(EXPIRY_SKEW_MILLIS, margin / 2);
+            }
+        }
+
+        private boolean isUsable() {
+            return System.currentTimeMillis() < usableUntil;
+        }
+
+        private boolean isRefreshDue() {
+            return System.currentTimeMillis() >= refreshAt;
+        }
+    }
+}
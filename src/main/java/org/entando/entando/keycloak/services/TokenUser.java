@@ -0,0 +1,39 @@
+package org.entando.entando.keycloak.services;
+
+import com.agiletec.aps.system.services.user.User;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+
+/**
+ * A user built from the claims of a validated access token, see {@link KeycloakAuthorizationManager#createUserFromToken}.
+ */
+public class TokenUser extends User {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String email;
+    private final String name;
+    private final Long expiration;
+
+    public TokenUser(final AccessToken accessToken) {
+        this.email = accessToken.getEmail();
+        this.name = accessToken.getName();
+        this.expiration = accessToken.getExpiration();
+        setUsername(accessToken.getUsername());
+        setDisabled(!accessToken.isActive());
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * When the token expires, in seconds since the epoch.
+     */
+    public Long getExpiration() {
+        return expiration;
+    }
+}
@@ -0,0 +1,58 @@
+package org.entando.entando.keycloak.services;
+
+import com.agiletec.aps.system.services.user.UserDetails;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * The users built by {@link KeycloakUserManager#getUser(String)}, with their authorizations, by username.
+ * Callers always get a copy, so they can add authorizations to it.
+ * <p>
+ * Only the writes made through the plugin invalidate an entry, authorizations changed from the Entando admin
+ * are seen when it expires.
+ */
+@Service
+public class UserDetailsCache {
+
+    private static final int DEFAULT_SIZE = 10_000;
+
+    private final Cache<String, UserDetails> users;
+
+    @Autowired
+    public UserDetailsCache(final KeycloakConfiguration configuration) {
+        this.users = configuration.getUserCacheTtlSeconds() > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(configuration.getUserCacheSize() > 0 ? configuration.getUserCacheSize() : DEFAULT_SIZE)
+                        .expireAfterWrite(configuration.getUserCacheTtlSeconds(), TimeUnit.SECONDS)
+                        .<String, UserDetails>build()
+                : null;
+    }
+
+    public Optional<UserDetails> get(final String username) {
+        if (users == null || username == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(users.getIfPresent(key(username))).map(KeycloakMapper::copyUserDetails);
+    }
+
+    public void put(final UserDetails user) {
+        if (users != null && user.getUsername() != null) {
+            users.put(key(user.getUsername()), KeycloakMapper.copyUserDetails(user));
+        }
+    }
+
+    public void invalidate(final String username) {
+        if (users != null && username != null) {
+            users.invalidate(key(username));
+        }
+    }
+
+    private static String key(final String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
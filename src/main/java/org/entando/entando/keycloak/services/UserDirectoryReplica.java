@@ -0,0 +1,241 @@
+package org.entando.entando.keycloak.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+import org.entando.entando.keycloak.services.oidc.BackgroundScheduler;
+import org.entando.entando.keycloak.services.oidc.model.AdminEvent;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory copy of the realm users, loaded by a full scan and kept current from the realm admin events.
+ * Changes without an admin event, like self-service updates or federated users, are caught by a periodic
+ * full reload.
+ */
+public class UserDirectoryReplica {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDirectoryReplica.class);
+
+    /**
+     * Events are replayed from a bit before the last one seen, to cover clock differences with Keycloak:
+     * replaying an event only reads a user again.
+     */
+    private static final long EVENT_OVERLAP_MILLIS = 60_000;
+    private static final int EVENT_PAGE_SIZE = 100;
+    private static final String USERS_PATH = "users/";
+
+    private final KeycloakService keycloakService;
+    private final long syncSeconds;
+    private final long resyncMillis;
+    private final ConcurrentSkipListMap<String, UserRepresentation> usersByUsername = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, String> usernamesById = new ConcurrentHashMap<>();
+    private final UserSearchIndex searchIndex = new UserSearchIndex();
+
+    private volatile boolean ready;
+    private volatile long lastEventTime;
+    private volatile long lastLoadTime;
+    private final BackgroundScheduler scheduler = new BackgroundScheduler("keycloak-user-directory");
+
+    /**
+     * @param resyncSeconds how often the users are all read again, {@code 0} to only follow the admin events
+     */
+    public UserDirectoryReplica(final KeycloakService keycloakService, final int syncSeconds, final int resyncSeconds) {
+        this.keycloakService = keycloakService;
+        this.syncSeconds = Math.max(syncSeconds, 1);
+        this.resyncMillis = TimeUnit.SECONDS.toMillis(Math.max(resyncSeconds, 0));
+    }
+
+    public void start() {
+        scheduler.startWithFixedDelay(this::synchronize, 0, syncSeconds, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Optional<UserRepresentation> findByUsername(final String username) {
+        return username == null ? Optional.empty() : Optional.ofNullable(usersByUsername.get(normalize(username)));
+    }
+
+    /**
+     * All the users of the realm, service accounts included, sorted by username.
+     */
+    public Stream<UserRepresentation> all() {
+        return usersByUsername.values().stream();
+    }
+
+    /**
+     * The users whose username, email, first or last name contains {@code text}, ignoring case, or all the
+     * users when {@code text} is empty, sorted by username like the Keycloak search. Service accounts are
+     * left out.
+     */
+    public Stream<UserRepresentation> search(final String text) {
+        if (StringUtils.isEmpty(text)) {
+            return all().filter(user -> !UserSearchIndex.isServiceAccount(user));
+        }
+        return searchIndex.search(text).stream()
+                .map(usernamesById::get)
+                .filter(Objects::nonNull)
+                .sorted()
+                .map(usersByUsername::get)
+                .filter(Objects::nonNull);
+    }
+
+    public int size() {
+        return usersByUsername.size();
+    }
+
+    public void put(final UserRepresentation user) {
+        if (user.getId() == null || user.getUsername() == null) {
+            return;
+        }
+        final String username = normalize(user.getUsername());
+        final String previous = usernamesById.put(user.getId(), username);
+        if (previous != null && !previous.equals(username)) {
+            usersByUsername.remove(previous);
+            keycloakService.invalidateUserId(previous);
+        }
+        usersByUsername.put(username, user);
+        searchIndex.add(user);
+    }
+
+    public void remove(final String id) {
+        final String username = usernamesById.remove(id);
+        if (username != null) {
+            usersByUsername.remove(username);
+            keycloakService.invalidateUserId(username);
+        }
+        searchIndex.remove(id);
+    }
+
+    /**
+     * Applies a change made to a user in Keycloak. The stored representation is copied rather than modified,
+     * since it can be being read.
+     */
+    public void update(final String id, final Consumer<UserRepresentation> change) {
+        final String username = usernamesById.get(id);
+        final UserRepresentation user = username != null ? usersByUsername.get(username) : null;
+        if (user != null) {
+            final UserRepresentation updated = copy(user);
+            change.accept(updated);
+            put(updated);
+        }
+    }
+
+    void synchronize() {
+        try {
+            if (!ready || (resyncMillis > 0 && System.currentTimeMillis() - lastLoadTime >= resyncMillis)) {
+                load();
+            } else {
+                applyEvents();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to synchronize the user directory with Keycloak, retrying in {} seconds", syncSeconds, e);
+        }
+    }
+
+    private void load() {
+        final long start = System.currentTimeMillis();
+        final Set<String> loadedIds = new HashSet<>();
+        keycloakService.scanUsers(null, false).forEach(user -> {
+            put(user);
+            loadedIds.add(user.getId());
+        });
+        if (ready) {
+            // removed without an admin event, e.g. by a user federation
+            usernamesById.keySet().stream()
+                    .filter(id -> !loadedIds.contains(id))
+                    .collect(Collectors.toList())
+                    .forEach(this::remove);
+        }
+        lastEventTime = start;
+        lastLoadTime = start;
+        ready = true;
+        log.info("User directory loaded with {} users", size());
+    }
+
+    private void applyEvents() {
+        final long since = lastEventTime - EVENT_OVERLAP_MILLIS;
+        final Map<String, AdminEvent> changedUsers = new LinkedHashMap<>();
+        long latest = lastEventTime;
+        for (int first = 0; ; first += EVENT_PAGE_SIZE) {
+            final List<AdminEvent> events = keycloakService.listUserAdminEvents(since, first, EVENT_PAGE_SIZE);
+            boolean older = false;
+            for (final AdminEvent event : events) {
+                if (event.getTime() < since) {
+                    older = true;
+                    continue;
+                }
+                latest = Math.max(latest, event.getTime());
+                final String id = getUserId(event.getResourcePath());
+                if (id != null) {
+                    // events come newest first, the latest one on a user decides
+                    changedUsers.putIfAbsent(id, event);
+                }
+            }
+            if (older || events.size() < EVENT_PAGE_SIZE) {
+                break;
+            }
+        }
+        changedUsers.forEach((id, event) -> {
+            if ("DELETE".equals(event.getOperationType()) && (USERS_PATH + id).equals(event.getResourcePath())) {
+                remove(id);
+            } else {
+                final Optional<UserRepresentation> user = keycloakService.getUser(id);
+                if (user.isPresent()) {
+                    put(user.get());
+                } else {
+                    remove(id);
+                }
+            }
+        });
+        lastEventTime = latest;
+    }
+
+    private static UserRepresentation copy(final UserRepresentation user) {
+        final UserRepresentation copy = new UserRepresentation();
+        copy.setId(user.getId());
+        copy.setCreatedTimestamp(user.getCreatedTimestamp());
+        copy.setUsername(user.getUsername());
+        copy.setEnabled(user.isEnabled());
+        copy.setTotp(user.isTotp());
+        copy.setEmailVerified(user.getEmailVerified());
+        copy.setFirstName(user.getFirstName());
+        copy.setLastName(user.getLastName());
+        copy.setEmail(user.getEmail());
+        copy.setRequiredActions(user.getRequiredActions() != null ? new ArrayList<>(user.getRequiredActions()) : null);
+        return copy;
+    }
+
+    private static String getUserId(final String resourcePath) {
+        if (resourcePath == null || !resourcePath.startsWith(USERS_PATH)) {
+            return null;
+        }
+        final String id = StringUtils.substringBefore(resourcePath.substring(USERS_PATH.length()), "/");
+        return id.isEmpty() ? null : id;
+    }
+
+    private static String normalize(final String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
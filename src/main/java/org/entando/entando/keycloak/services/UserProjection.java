@@ -0,0 +1,38 @@
+package org.entando.entando.keycloak.services;
+
+import org.entando.entando.keycloak.services.oidc.model.BriefUserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
+
+/**
+ * How much of each user is read when listing users.
+ * <p>
+ * {@link #USERNAME} and {@link #BRIEF} ask Keycloak for its brief representation, without the required actions
+ * and the other details, and read it into a smaller class: {@link #USERNAME} keeps only the id and username of
+ * each user, {@link #BRIEF} the fields that are listed and searched.
+ */
+public final class UserProjection<T extends UsernameRepresentation> {
+
+    public static final UserProjection<UsernameRepresentation> USERNAME =
+            new UserProjection<>(UsernameRepresentation[].class, true);
+    public static final UserProjection<BriefUserRepresentation> BRIEF =
+            new UserProjection<>(BriefUserRepresentation[].class, true);
+    public static final UserProjection<UserRepresentation> FULL =
+            new UserProjection<>(UserRepresentation[].class, false);
+
+    private final Class<T[]> arrayType;
+    private final boolean briefRepresentation;
+
+    private UserProjection(final Class<T[]> arrayType, final boolean briefRepresentation) {
+        this.arrayType = arrayType;
+        this.briefRepresentation = briefRepresentation;
+    }
+
+    Class<T[]> getArrayType() {
+        return arrayType;
+    }
+
+    boolean isBriefRepresentation() {
+        return briefRepresentation;
+    }
+}
@@ -0,0 +1,72 @@
+package org.entando.entando.keycloak.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The outcome of a bulk user provisioning, one entry per user in completion order.
+ * <p>
+ * Existing users are skipped and a user that fails is not left half created, so a provisioning is resumed by
+ * running it again, on the whole list or only on {@link #getFailedUsernames()}.
+ */
+public class UserProvisioningReport {
+
+    public enum Outcome {
+        CREATED, EXISTING, FAILED
+    }
+
+    private final List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+
+    public void add(final String username, final Outcome outcome, final String error) {
+        entries.add(new Entry(username, outcome, error));
+    }
+
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    public int count(final Outcome outcome) {
+        synchronized (entries) {
+            return (int) entries.stream().filter(entry -> entry.getOutcome() == outcome).count();
+        }
+    }
+
+    public Set<String> getFailedUsernames() {
+        synchronized (entries) {
+            return entries.stream()
+                    .filter(entry -> entry.getOutcome() == Outcome.FAILED)
+                    .map(Entry::getUsername)
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    public static final class Entry {
+
+        private final String username;
+        private final Outcome outcome;
+        private final String error;
+
+        private Entry(final String username, final Outcome outcome, final String error) {
+            this.username = username;
+            this.outcome = outcome;
+            this.error = error;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
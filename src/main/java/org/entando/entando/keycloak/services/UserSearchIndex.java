@@ -0,0 +1,142 @@
+package org.entando.entando.keycloak.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.entando.entando.keycloak.services.oidc.model.BriefUserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
+
+/**
+ * N-gram index over the username, email, first and last name of the users, answering the same substring
+ * searches as the Keycloak {@code search} parameter without scanning every user.
+ * <p>
+ * Each field value is indexed by all its substrings of up to {@value #GRAM_LENGTH} characters: shorter
+ * queries are a single lookup, longer ones intersect the postings of their trigrams and then check the
+ * candidates, so that a match can't span two fields. Service account users are never indexed, Keycloak
+ * lists them among the realm users but they are not Entando users.
+ */
+class UserSearchIndex {
+
+    static final String SERVICE_ACCOUNT_PREFIX = "service-account-";
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> fieldsById = new ConcurrentHashMap<>();
+
+    static boolean isServiceAccount(final UsernameRepresentation user) {
+        return user.getUsername() != null && user.getUsername().startsWith(SERVICE_ACCOUNT_PREFIX);
+    }
+
+    synchronized void add(final BriefUserRepresentation user) {
+        remove(user.getId());
+        if (isServiceAccount(user)) {
+            return;
+        }
+        final List<String> fields = fields(user);
+        fieldsById.put(user.getId(), fields);
+        for (final String gram : grams(fields)) {
+            postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(user.getId());
+        }
+    }
+
+    synchronized void remove(final String id) {
+        final List<String> fields = fieldsById.remove(id);
+        if (fields == null) {
+            return;
+        }
+        for (final String gram : grams(fields)) {
+            final Set<String> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * The ids of the indexed users having a field that contains {@code text}, ignoring case, or of all of them
+     * when {@code text} is empty.
+     */
+    Set<String> search(final String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.unmodifiableSet(fieldsById.keySet());
+        }
+        final String query = text.toLowerCase(Locale.ROOT);
+        if (query.length() <= GRAM_LENGTH) {
+            return postings.getOrDefault(query, Collections.emptySet());
+        }
+        Set<String> smallest = null;
+        final List<Set<String>> trigramPostings = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+            final Set<String> ids = postings.get(query.substring(i, i + GRAM_LENGTH));
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            trigramPostings.add(ids);
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        final Set<String> result = new HashSet<>();
+        for (final String id : smallest) {
+            if (containsAll(trigramPostings, id) && matches(fieldsById.get(id), query)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return fieldsById.size();
+    }
+
+    private static boolean containsAll(final List<Set<String>> trigramPostings, final String id) {
+        for (final Set<String> ids : trigramPostings) {
+            if (!ids.contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(final List<String> fields, final String query) {
+        if (fields != null) {
+            for (final String field : fields) {
+                if (field.contains(query)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<String> fields(final BriefUserRepresentation user) {
+        final List<String> fields = new ArrayList<>(4);
+        for (final String value : new String[]{user.getUsername(), user.getEmail(), user.getFirstName(), user.getLastName()}) {
+            if (value != null && !value.isEmpty()) {
+                fields.add(value.toLowerCase(Locale.ROOT));
+            }
+        }
+        return fields;
+    }
+
+    private static Set<String> grams(final List<String> fields) {
+        final Set<String> grams = new HashSet<>();
+        for (final String field : fields) {
+            for (int start = 0; start < field.length(); start++) {
+                for (int end = start + 1; end <= Math.min(start + GRAM_LENGTH, field.length()); end++) {
+                    grams.add(field.substring(start, end));
+                }
+            }
+        }
+        return grams;
+    }
+}
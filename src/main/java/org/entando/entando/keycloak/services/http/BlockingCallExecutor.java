@@ -0,0 +1,73 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs blocking calls to Keycloak off the caller thread.
+ * <p>
+ * When virtual threads are requested and the JVM supports them every call gets its own virtual thread, otherwise
+ * calls share a bounded pool of daemon platform threads.
+ */
+public class BlockingCallExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockingCallExecutor.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    public BlockingCallExecutor(final boolean virtualThreads, final int maxPlatformThreads) {
+        final ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : newPlatformThreadPool(maxPlatformThreads);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Virtual threads are not supported by this JVM, falling back to a pool of platform threads");
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPool(final int maxThreads) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "keycloak-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,124 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Guards every call to Keycloak: the circuit breaker must be closed and one of the
+ * {@code keycloak.http.max.connections} permits must be free within {@code keycloak.http.bulkhead.wait.millis}.
+ */
+class Bulkhead {
+
+    private final Semaphore connections;
+    private final Duration maxWait;
+    private final CircuitBreaker circuitBreaker;
+    private final Queue<CompletableFuture<Void>> asyncWaiters = new ConcurrentLinkedQueue<>();
+
+    Bulkhead(final int maxConnections, final Duration maxWait, final CircuitBreaker circuitBreaker) {
+        this.connections = new Semaphore(maxConnections, true);
+        this.maxWait = maxWait;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Waits for a free connection, up to the configured wait.
+     */
+    void acquire() throws KeycloakUnavailableException, InterruptedException {
+        checkCircuit();
+        final boolean acquired;
+        try {
+            acquired = connections.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+        if (!acquired) {
+            circuitBreaker.onIgnored();
+            throw new KeycloakUnavailableException("No connection to Keycloak available within " + maxWait);
+        }
+    }
+
+    /**
+     * Like {@link #acquire()}, but completes when a connection is free instead of blocking the calling thread:
+     * released connections are handed to the waiting calls first.
+     */
+    CompletableFuture<Void> acquireAsync() {
+        try {
+            checkCircuit();
+        } catch (KeycloakUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (connections.tryAcquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> waiter = new CompletableFuture<>();
+        asyncWaiters.add(waiter);
+        // a connection released before the waiter was queued would otherwise be missed
+        if (connections.tryAcquire() && !waiter.complete(null)) {
+            releasePermit();
+        }
+        final CompletableFuture<Void> acquired = new CompletableFuture<>();
+        waiter.orTimeout(maxWait.toMillis(), TimeUnit.MILLISECONDS).whenComplete((ignored, e) -> {
+            asyncWaiters.remove(waiter);
+            if (e == null) {
+                acquired.complete(null);
+            } else {
+                circuitBreaker.onIgnored();
+                acquired.completeExceptionally(e instanceof TimeoutException
+                        ? new KeycloakUnavailableException("No connection to Keycloak available within " + maxWait) : e);
+            }
+        });
+        return acquired;
+    }
+
+    /**
+     * Releases the connection, reporting the outcome of the call to the circuit breaker: I/O errors and
+     * server errors count as failures.
+     */
+    void release(final int status, final Throwable error) {
+        releasePermit();
+        if (error instanceof IOException || (error == null && status >= 500)) {
+            circuitBreaker.onFailure();
+        } else if (error == null) {
+            circuitBreaker.onSuccess();
+        } else {
+            circuitBreaker.onIgnored();
+        }
+    }
+
+    int availablePermits() {
+        return connections.availablePermits();
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    private void releasePermit() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            while ((waiter = asyncWaiters.poll()) != null) {
+                if (waiter.complete(null)) {
+                    return;
+                }
+            }
+            connections.release();
+            // a call may have been queued while the connection was released
+            if (asyncWaiters.isEmpty() || !connections.tryAcquire()) {
+                return;
+            }
+        }
+    }
+
+    private void checkCircuit() throws KeycloakUnavailableException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new KeycloakUnavailableException("Keycloak is not called while its circuit breaker is open");
+        }
+    }
+}
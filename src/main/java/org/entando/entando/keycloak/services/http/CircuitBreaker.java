@@ -0,0 +1,80 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops calling Keycloak after {@code failureThreshold} consecutive failures.
+ * <p>
+ * While open every call is refused; once {@code openSeconds} have passed a single trial call is let through,
+ * closing the circuit if it succeeds and opening it again if it fails. A threshold of {@code 0} disables it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    public CircuitBreaker(final int failureThreshold, final int openSeconds) {
+        this.failureThreshold = Math.max(failureThreshold, 0);
+        this.openMillis = TimeUnit.SECONDS.toMillis(Math.max(openSeconds, 0));
+    }
+
+    public boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+
+    /**
+     * @return true if the call can go to Keycloak, in which case its outcome must be reported with
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}
+     */
+    public synchronized boolean tryAcquire() {
+        if (!isEnabled() || State.CLOSED.equals(state)) {
+            return true;
+        }
+        if (State.OPEN.equals(state) && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        if (!isEnabled()) {
+            return;
+        }
+        failures++;
+        if (State.HALF_OPEN.equals(state) || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reports a call that never reached Keycloak, so that a trial call doesn't keep the circuit half-open.
+     */
+    public synchronized void onIgnored() {
+        if (State.HALF_OPEN.equals(state)) {
+            state = State.OPEN;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return !State.CLOSED.equals(state);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,175 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * {@link ClientHttpRequestFactory} backed by the JDK {@link HttpClient}, so that {@code RestTemplate}
+ * calls reuse its connection pool.
+ */
+class JdkClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    /**
+     * Headers the JDK client manages by itself and refuses to receive from the caller.
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient httpClient;
+    private final Bulkhead bulkhead;
+    private final Duration readTimeout;
+
+    JdkClientHttpRequestFactory(final HttpClient httpClient, final Bulkhead bulkhead, final Duration readTimeout) {
+        this.httpClient = httpClient;
+        this.bulkhead = bulkhead;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(final URI uri, final HttpMethod httpMethod) {
+        return new JdkClientHttpRequest(uri, httpMethod);
+    }
+
+    static HttpRequest.Builder newRequest(final URI uri, final Duration readTimeout, final HttpHeaders headers) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(readTimeout);
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            // no h2c upgrade on plain connections, HTTP/2 is only negotiated with TLS
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        headers.forEach((name, values) -> {
+            if (!RESTRICTED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                values.forEach(value -> builder.header(name, value));
+            }
+        });
+        return builder;
+    }
+
+    private class JdkClientHttpRequest extends AbstractClientHttpRequest {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        JdkClientHttpRequest(final URI uri, final HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public String getMethodValue() {
+            return method.name();
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(final HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(final HttpHeaders headers) throws IOException {
+            final byte[] content = body.toByteArray();
+            final HttpRequest request = newRequest(uri, readTimeout, headers)
+                    .method(method.name(), content.length == 0
+                            ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofByteArray(content))
+                    .build();
+            try {
+                bulkhead.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + uri);
+            }
+            HttpResponse<byte[]> response = null;
+            Throwable error = null;
+            try {
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                return new JdkClientHttpResponse(response);
+            } catch (InterruptedException e) {
+                error = e;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while calling " + uri);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                bulkhead.release(response != null ? response.statusCode() : 0, error);
+            }
+        }
+    }
+
+    static class JdkClientHttpResponse implements ClientHttpResponse {
+
+        private final HttpResponse<byte[]> response;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        JdkClientHttpResponse(final HttpResponse<byte[]> response) {
+            this.response = response;
+            response.headers().map().forEach((name, values) -> {
+                if (!name.startsWith(":")) {
+                    headers.addAll(name, values);
+                }
+            });
+        }
+
+        @Override
+        public HttpStatus getStatusCode() {
+            return HttpStatus.valueOf(response.statusCode());
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getStatusText() {
+            final HttpStatus status = HttpStatus.resolve(response.statusCode());
+            return status != null ? status.getReasonPhrase() : "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(response.body() != null ? response.body() : new byte[0]);
+        }
+
+        @Override
+        public void close() {
+            // the body is already fully read
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.http.JdkClientHttpRequestFactory.JdkClientHttpResponse;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpMessageConverterExtractor;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The HTTP client shared by every call to Keycloak.
+ * <p>
+ * Connections are kept alive and reused, HTTP/2 is negotiated on TLS connections, and at most
+ * {@code keycloak.http.max.connections} requests are in flight at the same time. Calls are refused with a
+ * {@link KeycloakUnavailableException} while the circuit breaker is open or when no connection frees up in time.
+ * <p>
+ * The asynchronous methods don't hold any thread while waiting for a connection or for Keycloak, they wait
+ * for a connection as long as the blocking calls do, and report errors with the same
+ * exceptions {@link RestTemplate} throws, wrapped in a {@link CompletionException}.
+ */
+@Service
+public class KeycloakHttpClient implements DisposableBean {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 10_000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    private final HttpClient httpClient;
+    private final RestTemplate restTemplate;
+    private final Bulkhead bulkhead;
+    private final Duration readTimeout;
+    private final BlockingCallExecutor blockingExecutor;
+
+    @Autowired
+    public KeycloakHttpClient(final KeycloakConfiguration configuration) {
+        final Duration connectTimeout = Duration.ofMillis(
+                positiveOrDefault(configuration.getHttpConnectTimeoutMillis(), DEFAULT_CONNECT_TIMEOUT_MILLIS));
+        this.readTimeout = Duration.ofMillis(
+                positiveOrDefault(configuration.getHttpReadTimeoutMillis(), DEFAULT_READ_TIMEOUT_MILLIS));
+        final int maxConnections = positiveOrDefault(configuration.getHttpMaxConnections(), DEFAULT_MAX_CONNECTIONS);
+        final Duration maxWait = configuration.getHttpBulkheadWaitMillis() > 0
+                ? Duration.ofMillis(configuration.getHttpBulkheadWaitMillis()) : readTimeout;
+        this.bulkhead = new Bulkhead(maxConnections, maxWait, new CircuitBreaker(
+                configuration.getCircuitBreakerFailureThreshold(), configuration.getCircuitBreakerOpenSeconds()));
+        this.blockingExecutor = new BlockingCallExecutor(configuration.isHttpVirtualThreads(), maxConnections);
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (blockingExecutor.isVirtual()) {
+            builder.executor(blockingExecutor.getExecutor());
+        }
+        this.httpClient = builder.build();
+        this.restTemplate = new RestTemplate(new JdkClientHttpRequestFactory(httpClient, bulkhead, readTimeout));
+    }
+
+    public <T> CompletableFuture<ResponseEntity<T>> postFormAsync(final URI url,
+                                                                  final HttpEntity<MultiValueMap<String, String>> request,
+                                                                  final Class<T> responseType) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.putAll(request.getHeaders());
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        final HttpRequest httpRequest = JdkClientHttpRequestFactory.newRequest(url, readTimeout, headers)
+                .POST(HttpRequest.BodyPublishers.ofString(encodeForm(request.getBody()), StandardCharsets.UTF_8))
+                .build();
+        return bulkhead.acquireAsync()
+                .handle((ignored, refused) -> refused)
+                .thenCompose(refused -> refused == null
+                        ? send(url, httpRequest, responseType)
+                        : CompletableFuture.<ResponseEntity<T>>failedFuture(toRestClientException(url, refused)));
+    }
+
+    private <T> CompletableFuture<ResponseEntity<T>> send(final URI url, final HttpRequest httpRequest,
+                                                         final Class<T> responseType) {
+        final CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            sent = httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException e) {
+            bulkhead.release(0, e);
+            throw e;
+        }
+        return sent
+                .handle((response, e) -> {
+                    bulkhead.release(response != null ? response.statusCode() : 0,
+                            e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    if (e != null) {
+                        throw toRestClientException(url, e);
+                    }
+                    return toResponseEntity(new JdkClientHttpResponse(response), responseType);
+                });
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getAvailableConnections() {
+        return bulkhead.availablePermits();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return bulkhead.getCircuitBreaker();
+    }
+
+    /**
+     * The executor for the blocking calls to Keycloak, running on virtual threads when
+     * {@code keycloak.http.virtual.threads} is enabled and the JVM supports them.
+     */
+    public BlockingCallExecutor getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    @Override
+    public void destroy() {
+        blockingExecutor.shutdown();
+    }
+
+    private <T> ResponseEntity<T> toResponseEntity(final JdkClientHttpResponse response, final Class<T> responseType) {
+        try {
+            if (restTemplate.getErrorHandler().hasError(response)) {
+                restTemplate.getErrorHandler().handleError(response);
+            }
+            final T body = new HttpMessageConverterExtractor<>(responseType, restTemplate.getMessageConverters())
+                    .extractData(response);
+            return new ResponseEntity<>(body, response.getHeaders(), response.getStatusCode());
+        } catch (IOException e) {
+            throw new ResourceAccessException("Unable to read the response from Keycloak: " + e.getMessage(), e);
+        }
+    }
+
+    private static RuntimeException toRestClientException(final URI url, final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof IOException) {
+            return new ResourceAccessException("I/O error on POST request for \"" + url + "\": " + cause.getMessage(), (IOException) cause);
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    private static String encodeForm(final MultiValueMap<String, String> form) {
+        final StringJoiner joiner = new StringJoiner("&");
+        if (form != null) {
+            // like FormHttpMessageConverter, a null value is sent as the bare name
+            form.forEach((name, values) -> values.forEach(value -> joiner.add(value == null
+                    ? URLEncoder.encode(name, StandardCharsets.UTF_8)
+                    : URLEncoder.encode(name, StandardCharsets.UTF_8) + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8))));
+        }
+        return joiner.toString();
+    }
+
+    private static int positiveOrDefault(final int value, final int defaultValue) {
+        return value > 0 ? value : defaultValue;
+    }
+}
@@ -0,0 +1,15 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.io.IOException;
+
+/**
+ * Keycloak was not called because its circuit breaker is open or because all the connections are busy.
+ */
+public class KeycloakUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public KeycloakUnavailableException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,145 @@
+package org.entando.entando.keycloak.services.http;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Retries the calls to Keycloak that failed for a reason that can go away, within a deadline.
+ * <p>
+ * A 401 means the token expired or was revoked: the caller renews it and the call is repeated at once, a single
+ * time. A 429 or 503 means Keycloak is overloaded or restarting: the call is repeated after the delay in
+ * {@code Retry-After}, or after an exponential backoff with full jitter so that the nodes don't retry all
+ * together. I/O errors, 502 and 504 are retried the same way only for idempotent calls, since the request may
+ * have been processed. Calls refused by the open circuit breaker are never retried.
+ */
+public class RetryExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryExecutor.class);
+
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private final int maxAttempts;
+    private final long deadlineMillis;
+    private final long backoffMillis;
+
+    private final LongAdder unauthorizedRetries = new LongAdder();
+    private final LongAdder throttledRetries = new LongAdder();
+    private final LongAdder unavailableRetries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public RetryExecutor(final int maxAttempts, final Duration deadline, final Duration backoff) {
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.deadlineMillis = deadline.toMillis();
+        this.backoffMillis = Math.max(backoff.toMillis(), 1);
+    }
+
+    /**
+     * @param idempotent     whether the call can be repeated when its outcome is unknown
+     * @param call           the call, getting a valid token each time it runs
+     * @param onUnauthorized invoked before repeating a call that got a 401, to drop the rejected token
+     */
+    public <T> T execute(final boolean idempotent, final Supplier<T> call, final Runnable onUnauthorized) {
+        final long deadline = System.currentTimeMillis() + deadlineMillis;
+        boolean tokenRenewed = false;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            try {
+                return call.get();
+            } catch (HttpStatusCodeException e) {
+                if (e.getRawStatusCode() == HttpStatus.UNAUTHORIZED.value() && !tokenRenewed) {
+                    tokenRenewed = true;
+                    attempt--;
+                    unauthorizedRetries.increment();
+                    onUnauthorized.run();
+                    continue;
+                }
+                if (!isRetryable(e.getRawStatusCode(), idempotent)
+                        || !backOff(attempt, retryAfterMillis(e.getResponseHeaders()), deadline)) {
+                    throw e;
+                }
+                (e.getRawStatusCode() == HttpStatus.TOO_MANY_REQUESTS.value() ? throttledRetries : unavailableRetries).increment();
+                log.debug("Keycloak answered {}, retrying", e.getRawStatusCode());
+            } catch (ResourceAccessException e) {
+                if (!idempotent || e.getCause() instanceof KeycloakUnavailableException || !backOff(attempt, -1, deadline)) {
+                    throw e;
+                }
+                unavailableRetries.increment();
+                log.debug("Unable to reach Keycloak, retrying", e);
+            }
+        }
+    }
+
+    /**
+     * The number of retries by reason, and of the calls that failed after running out of attempts or time.
+     */
+    public Map<String, Long> getMetrics() {
+        final Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("unauthorized", unauthorizedRetries.sum());
+        metrics.put("throttled", throttledRetries.sum());
+        metrics.put("unavailable", unavailableRetries.sum());
+        metrics.put("exhausted", exhausted.sum());
+        return metrics;
+    }
+
+    private static boolean isRetryable(final int status, final boolean idempotent) {
+        if (status == HttpStatus.TOO_MANY_REQUESTS.value() || status == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+            return true;
+        }
+        return idempotent && (status == HttpStatus.BAD_GATEWAY.value() || status == HttpStatus.GATEWAY_TIMEOUT.value());
+    }
+
+    private boolean backOff(final int attempt, final long retryAfterMillis, final long deadline) {
+        if (attempt >= maxAttempts) {
+            exhausted.increment();
+            return false;
+        }
+        final long delay = retryAfterMillis >= 0 ? retryAfterMillis : jitteredBackoff(attempt);
+        if (System.currentTimeMillis() + delay > deadline) {
+            exhausted.increment();
+            return false;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private long jitteredBackoff(final int attempt) {
+        final long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return the delay asked by {@code Retry-After}, in seconds or as a date, or -1 when there's none
+     */
+    private static long retryAfterMillis(final HttpHeaders headers) {
+        final String retryAfter = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(retryAfter.trim()), 0));
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(headers.getFirstDate(HttpHeaders.RETRY_AFTER) - System.currentTimeMillis(), 0);
+            } catch (IllegalArgumentException invalid) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A daemon thread for background refreshes, started by the first task scheduled on it.
+ */
+public class BackgroundScheduler {
+
+    private final String threadName;
+
+    private ScheduledExecutorService executor;
+    private boolean shutdown;
+    private volatile boolean periodicStarted;
+
+    public BackgroundScheduler(final String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Runs {@code task} with a fixed delay, on the first call only.
+     */
+    public void startWithFixedDelay(final Runnable task, final long initialDelay, final long delay, final TimeUnit unit) {
+        if (periodicStarted) {
+            return;
+        }
+        synchronized (this) {
+            if (!periodicStarted && !shutdown) {
+                getExecutor().scheduleWithFixedDelay(task, initialDelay, delay, unit);
+                periodicStarted = true;
+            }
+        }
+    }
+
+    public synchronized void schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        if (!shutdown) {
+            getExecutor().schedule(task, delay, unit);
+        }
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,156 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.JsonWebKey;
+import org.entando.entando.keycloak.services.oidc.model.JsonWebKeySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * The realm signing keys by key id, reloaded in background and, at most once every
+ * {@link #MIN_REFRESH_INTERVAL_MILLIS}, when a token has an unknown key id.
+ */
+public class JsonWebKeySetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonWebKeySetCache.class);
+
+    static final long MIN_REFRESH_INTERVAL_MILLIS = 10_000;
+    private static final long REFRESH_TIMEOUT_SECONDS = 30;
+
+    private final KeycloakConfiguration configuration;
+    private final RestTemplate restTemplate;
+    private final OpenIDConnectDiscovery discovery;
+    private final AtomicReference<CompletableFuture<Map<String, PublicKey>>> pendingRefresh = new AtomicReference<>();
+
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private volatile long lastRefresh;
+    private final BackgroundScheduler scheduler = new BackgroundScheduler("keycloak-jwks-refresh");
+
+    public JsonWebKeySetCache(final KeycloakConfiguration configuration, final RestTemplate restTemplate,
+                              final OpenIDConnectDiscovery discovery) {
+        this.configuration = configuration;
+        this.restTemplate = restTemplate;
+        this.discovery = discovery;
+    }
+
+    public PublicKey getKey(final String kid) {
+        scheduleRefresh();
+        final PublicKey key = keys.get(kid);
+        if (key != null) {
+            return key;
+        }
+        final CompletableFuture<Map<String, PublicKey>> refresh = refreshIfAllowed();
+        if (refresh == null && keys.isEmpty()) {
+            throw new IllegalStateException("The realm signing keys aren't loaded");
+        }
+        return refresh == null ? keys.get(kid) : await(refresh).get(kid);
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Returns the pending reload, starting a new one if the last reload is old enough, or null if the key
+     * set can't be reloaded yet.
+     */
+    private CompletableFuture<Map<String, PublicKey>> refreshIfAllowed() {
+        final CompletableFuture<Map<String, PublicKey>> pending = pendingRefresh.get();
+        if (pending != null) {
+            return pending;
+        }
+        if (System.currentTimeMillis() - lastRefresh < MIN_REFRESH_INTERVAL_MILLIS) {
+            return null;
+        }
+        return refresh();
+    }
+
+    CompletableFuture<Map<String, PublicKey>> refresh() {
+        final CompletableFuture<Map<String, PublicKey>> refresh = new CompletableFuture<>();
+        if (!pendingRefresh.compareAndSet(null, refresh)) {
+            final CompletableFuture<Map<String, PublicKey>> pending = pendingRefresh.get();
+            return pending != null ? pending : CompletableFuture.completedFuture(keys);
+        }
+        lastRefresh = System.currentTimeMillis();
+        try {
+            keys = toPublicKeys(fetchKeySet());
+            refresh.complete(keys);
+        } catch (RuntimeException e) {
+            refresh.completeExceptionally(e);
+        } finally {
+            pendingRefresh.set(null);
+        }
+        return refresh;
+    }
+
+    JsonWebKeySet fetchKeySet() {
+        return restTemplate.getForObject(discovery.getEndpoints().getJwksUri(), JsonWebKeySet.class);
+    }
+
+    private Map<String, PublicKey> await(final CompletableFuture<Map<String, PublicKey>> refresh) {
+        try {
+            return refresh.get(REFRESH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return keys;
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for the realm signing keys");
+            return keys;
+        } catch (ExecutionException e) {
+            if (keys.isEmpty() && e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            log.warn("Unable to reload the realm signing keys, using the ones already loaded", e.getCause());
+            return keys;
+        }
+    }
+
+    private void scheduleRefresh() {
+        final long period = Math.max(configuration.getTokenKeysRefreshSeconds(), 1);
+        scheduler.startWithFixedDelay(this::backgroundRefresh, period, period, TimeUnit.SECONDS);
+    }
+
+    private void backgroundRefresh() {
+        refresh().whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("Unable to reload the realm signing keys", e);
+            }
+        });
+    }
+
+    private static Map<String, PublicKey> toPublicKeys(final JsonWebKeySet keySet) {
+        final Map<String, PublicKey> publicKeys = new HashMap<>();
+        if (keySet == null || keySet.getKeys() == null) {
+            return publicKeys;
+        }
+        for (final JsonWebKey key : keySet.getKeys()) {
+            if (!"RSA".equals(key.getKty()) || "enc".equals(key.getUse())
+                    || key.getKid() == null || key.getN() == null || key.getE() == null) {
+                continue;
+            }
+            try {
+                final BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(key.getN()));
+                final BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(key.getE()));
+                publicKeys.put(key.getKid(), KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent)));
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                log.warn("Ignoring invalid signing key {} published by Keycloak", key.getKid(), e);
+            }
+        }
+        return Collections.unmodifiableMap(publicKeys);
+    }
+}
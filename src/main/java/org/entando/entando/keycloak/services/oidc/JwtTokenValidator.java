@@ -0,0 +1,185 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.StringUtils;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+import org.entando.entando.keycloak.services.oidc.model.TokenRoles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates access tokens without calling Keycloak: the signature is checked against the realm keys and
+ * the {@code exp}, {@code nbf}, {@code iss} and {@code aud} claims are checked locally.
+ */
+public class JwtTokenValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(JwtTokenValidator.class);
+
+    private static final long CLOCK_SKEW_SECONDS = 30;
+    private static final int MAX_TOKEN_LENGTH = 65_536;
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = new HashMap<>();
+
+    static {
+        SIGNATURE_ALGORITHMS.put("RS256", "SHA256withRSA");
+        SIGNATURE_ALGORITHMS.put("RS384", "SHA384withRSA");
+        SIGNATURE_ALGORITHMS.put("RS512", "SHA512withRSA");
+    }
+
+    private final JsonWebKeySetCache keySetCache;
+    private final ObjectMapper objectMapper;
+    private final OpenIDConnectDiscovery discovery;
+    private final Set<String> audiences;
+
+    public JwtTokenValidator(final KeycloakConfiguration configuration, final JsonWebKeySetCache keySetCache,
+                             final OpenIDConnectDiscovery discovery) {
+        this.keySetCache = keySetCache;
+        this.objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.discovery = discovery;
+        this.audiences = StringUtils.isEmpty(configuration.getTokenAudience())
+                ? new HashSet<>(Arrays.asList(configuration.getClientId(), configuration.getPublicClientId()))
+                : Arrays.stream(configuration.getTokenAudience().split(","))
+                        .map(String::trim)
+                        .filter(StringUtils::isNotEmpty)
+                        .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return the token built from the claims, inactive if the token isn't valid, or empty if the token has to
+     * be introspected: it is signed with an algorithm that can't be verified locally, or the realm keys can't be
+     * loaded. A key id missing from the loaded keys is inactive, so that made up key ids don't reach Keycloak.
+     */
+    public Optional<AccessToken> validate(final String token) {
+        if (!isWellFormed(token)) {
+            return Optional.of(inactive());
+        }
+        final String[] parts = token.split("\\.");
+        try {
+            final JsonNode header = decode(parts[0]);
+            final String algorithm = SIGNATURE_ALGORITHMS.get(header.path("alg").asText());
+            if (algorithm == null) {
+                log.debug("Token signed with {} can't be validated locally", header.path("alg").asText());
+                return Optional.empty();
+            }
+
+            final String kid = header.path("kid").asText(null);
+            final PublicKey key;
+            try {
+                key = kid == null ? null : keySetCache.getKey(kid);
+            } catch (RuntimeException e) {
+                log.debug("Unable to load the realm signing keys, the token will be introspected", e);
+                return Optional.empty();
+            }
+            if (key == null || !isSignatureValid(algorithm, key, parts)) {
+                return Optional.of(inactive());
+            }
+
+            final JsonNode claims = decode(parts[1]);
+            return Optional.of(areClaimsValid(claims) ? toAccessToken(claims) : inactive());
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException e) {
+            log.debug("Unable to validate token", e);
+            return Optional.of(inactive());
+        }
+    }
+
+    /**
+     * Cheap structural check, without any decoding: three non empty base64url segments, the first one
+     * being a JSON object.
+     */
+    public static boolean isWellFormed(final String token) {
+        if (token == null || token.length() > MAX_TOKEN_LENGTH || !token.startsWith("eyJ")) {
+            return false;
+        }
+        int separators = 0;
+        int segmentLength = 0;
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if (c == '.') {
+                if (segmentLength == 0 || ++separators > 2) {
+                    return false;
+                }
+                segmentLength = 0;
+            } else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                segmentLength++;
+            } else {
+                return false;
+            }
+        }
+        return separators == 2 && segmentLength > 0;
+    }
+
+    private JsonNode decode(final String part) throws IOException {
+        return objectMapper.readTree(Base64.getUrlDecoder().decode(part));
+    }
+
+    private boolean isSignatureValid(final String algorithm, final PublicKey key, final String[] parts) throws GeneralSecurityException {
+        final Signature signature = Signature.getInstance(algorithm);
+        signature.initVerify(key);
+        signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+        return signature.verify(Base64.getUrlDecoder().decode(parts[2]));
+    }
+
+    private boolean areClaimsValid(final JsonNode claims) {
+        final long now = System.currentTimeMillis() / 1000;
+        if (!claims.path("exp").canConvertToLong() || claims.path("exp").asLong() + CLOCK_SKEW_SECONDS < now) {
+            return false;
+        }
+        if (claims.has("nbf") && claims.path("nbf").asLong() - CLOCK_SKEW_SECONDS > now) {
+            return false;
+        }
+        if (claims.has("typ") && !"Bearer".equalsIgnoreCase(claims.path("typ").asText())) {
+            return false;
+        }
+        return discovery.getEndpoints().getIssuer().equals(claims.path("iss").asText()) && isAudienceValid(claims);
+    }
+
+    private boolean isAudienceValid(final JsonNode claims) {
+        if (audiences.contains(claims.path("azp").asText())) {
+            return true;
+        }
+        final JsonNode audience = claims.path("aud");
+        if (audience.isArray()) {
+            for (final JsonNode value : audience) {
+                if (audiences.contains(value.asText())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return audiences.contains(audience.asText());
+    }
+
+    private AccessToken toAccessToken(final JsonNode claims) {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.setActive(true);
+        accessToken.setExpiration(claims.path("exp").asLong());
+        accessToken.setUsername(claims.path("preferred_username").asText(null));
+        accessToken.setEmail(claims.path("email").asText(null));
+        accessToken.setName(claims.path("name").asText(null));
+        if (claims.hasNonNull("resource_access")) {
+            accessToken.setResourceAccess(objectMapper.convertValue(claims.get("resource_access"),
+                    new TypeReference<Map<String, TokenRoles>>() {}));
+        }
+        return accessToken;
+    }
+
+    private static AccessToken inactive() {
+        return new AccessToken();
+    }
+}
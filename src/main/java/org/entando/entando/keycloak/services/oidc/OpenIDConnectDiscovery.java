@@ -0,0 +1,100 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang3.StringUtils;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.OpenIDConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Resolves the realm endpoints from the issuer discovery document, falling back to the Keycloak layout
+ * until it can be loaded. Only the first use waits for the document, later loads run in background.
+ */
+public class OpenIDConnectDiscovery {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenIDConnectDiscovery.class);
+
+    static final long RETRY_INTERVAL_MILLIS = 10_000;
+    private static final int DEFAULT_REFRESH_SECONDS = 3600;
+    private static final String DOCUMENT_KEY = "discovery";
+
+    private final KeycloakConfiguration configuration;
+    private final RestTemplate restTemplate;
+    private final OpenIDConnectEndpoints defaults;
+
+    private volatile OpenIDConnectEndpoints endpoints;
+    private volatile boolean discovered;
+    volatile long lastAttempt;
+    private final BackgroundScheduler scheduler = new BackgroundScheduler("keycloak-oidc-discovery");
+    private final SingleFlight<String, OpenIDConnectEndpoints> loads = new SingleFlight<>();
+    private final AtomicBoolean retryPending = new AtomicBoolean();
+
+    public OpenIDConnectDiscovery(final KeycloakConfiguration configuration, final RestTemplate restTemplate) {
+        this.configuration = configuration;
+        this.restTemplate = restTemplate;
+        this.defaults = OpenIDConnectEndpoints.ofKeycloak(StringUtils.isEmpty(configuration.getIssuerUrl())
+                ? configuration.getAuthUrl() + "/realms/" + configuration.getRealm()
+                : StringUtils.removeEnd(configuration.getIssuerUrl(), "/"));
+    }
+
+    public OpenIDConnectEndpoints getEndpoints() {
+        final OpenIDConnectEndpoints current = endpoints;
+        if (current == null) {
+            scheduleRefresh();
+            return loads.execute(DOCUMENT_KEY, () -> endpoints != null ? endpoints : load());
+        }
+        if (!discovered && System.currentTimeMillis() - lastAttempt >= RETRY_INTERVAL_MILLIS
+                && retryPending.compareAndSet(false, true)) {
+            scheduler.schedule(this::retry, 0, TimeUnit.MILLISECONDS);
+        }
+        return current;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    void refresh() {
+        loads.execute(DOCUMENT_KEY, this::load);
+    }
+
+    private void retry() {
+        try {
+            refresh();
+        } finally {
+            retryPending.set(false);
+        }
+    }
+
+    private OpenIDConnectEndpoints load() {
+        lastAttempt = System.currentTimeMillis();
+        try {
+            final OpenIDConfiguration document = fetchConfiguration();
+            if (document == null) {
+                throw new IllegalStateException("Empty OpenID Connect discovery document");
+            }
+            endpoints = OpenIDConnectEndpoints.of(document, defaults);
+            discovered = true;
+        } catch (RuntimeException e) {
+            if (endpoints == null) {
+                endpoints = defaults;
+            }
+            log.warn("Unable to load the OpenID Connect discovery document of {}, using {} endpoints",
+                    defaults.getIssuer(), discovered ? "the last discovered" : "the default Keycloak", e);
+        }
+        return endpoints;
+    }
+
+    OpenIDConfiguration fetchConfiguration() {
+        return restTemplate.getForObject(defaults.getIssuer() + "/.well-known/openid-configuration", OpenIDConfiguration.class);
+    }
+
+    private void scheduleRefresh() {
+        final long period = configuration.getDiscoveryRefreshSeconds() > 0
+                ? configuration.getDiscoveryRefreshSeconds() : DEFAULT_REFRESH_SECONDS;
+        scheduler.startWithFixedDelay(this::refresh, period, period, TimeUnit.SECONDS);
+    }
+}
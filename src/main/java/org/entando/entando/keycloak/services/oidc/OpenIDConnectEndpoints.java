@@ -0,0 +1,82 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.net.URI;
+import org.apache.commons.lang3.StringUtils;
+import org.entando.entando.keycloak.services.oidc.model.OpenIDConfiguration;
+
+/**
+ * The endpoints of the realm, resolved once and ready to be used for every call.
+ */
+public final class OpenIDConnectEndpoints {
+
+    private final String issuer;
+    private final URI authorizationEndpoint;
+    private final URI tokenEndpoint;
+    private final URI introspectionEndpoint;
+    private final URI endSessionEndpoint;
+    private final URI jwksUri;
+
+    private OpenIDConnectEndpoints(final String issuer, final URI authorizationEndpoint, final URI tokenEndpoint,
+                                   final URI introspectionEndpoint, final URI endSessionEndpoint, final URI jwksUri) {
+        this.issuer = issuer;
+        this.authorizationEndpoint = authorizationEndpoint;
+        this.tokenEndpoint = tokenEndpoint;
+        this.introspectionEndpoint = introspectionEndpoint;
+        this.endSessionEndpoint = endSessionEndpoint;
+        this.jwksUri = jwksUri;
+    }
+
+    /**
+     * The endpoints Keycloak publishes under the given issuer, used until the discovery document is loaded.
+     */
+    static OpenIDConnectEndpoints ofKeycloak(final String issuer) {
+        final String base = issuer + "/protocol/openid-connect";
+        return new OpenIDConnectEndpoints(issuer,
+                URI.create(base + "/auth"),
+                URI.create(base + "/token"),
+                URI.create(base + "/token/introspect"),
+                URI.create(base + "/logout"),
+                URI.create(base + "/certs"));
+    }
+
+    /**
+     * The endpoints of the discovery document, the ones it doesn't advertise are taken from {@code defaults}.
+     */
+    static OpenIDConnectEndpoints of(final OpenIDConfiguration discovered, final OpenIDConnectEndpoints defaults) {
+        return new OpenIDConnectEndpoints(
+                StringUtils.defaultIfEmpty(discovered.getIssuer(), defaults.issuer),
+                uri(discovered.getAuthorizationEndpoint(), defaults.authorizationEndpoint),
+                uri(discovered.getTokenEndpoint(), defaults.tokenEndpoint),
+                uri(discovered.getIntrospectionEndpoint(), defaults.introspectionEndpoint),
+                uri(discovered.getEndSessionEndpoint(), defaults.endSessionEndpoint),
+                uri(discovered.getJwksUri(), defaults.jwksUri));
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public URI getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    public URI getTokenEndpoint() {
+        return tokenEndpoint;
+    }
+
+    public URI getIntrospectionEndpoint() {
+        return introspectionEndpoint;
+    }
+
+    public URI getEndSessionEndpoint() {
+        return endSessionEndpoint;
+    }
+
+    public URI getJwksUri() {
+        return jwksUri;
+    }
+
+    private static URI uri(final String value, final URI defaultValue) {
+        return StringUtils.isEmpty(value) ? defaultValue : URI.create(value);
+    }
+}
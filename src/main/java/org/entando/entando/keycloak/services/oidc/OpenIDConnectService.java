@@ -2,6 +2,7 @@ package org.entando.entando.keycloak.services.oidc;
 
 import org.entando.entando.KeycloakWiki;
 import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.http.KeycloakHttpClient;
 import org.entando.entando.keycloak.services.oidc.exception.AccountDisabledException;
 import org.entando.entando.keycloak.services.oidc.exception.CredentialsExpiredException;
 import org.entando.entando.keycloak.services.oidc.exception.InvalidCredentialsException;
@@ -10,6 +11,7 @@ import org.entando.entando.keycloak.services.oidc.model.AccessToken;
 import org.entando.entando.keycloak.services.oidc.model.AuthResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -20,25 +22,58 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.entando.entando.KeycloakWiki.wiki;
 
 @Service("oidcService")
-public class OpenIDConnectService {
+public class OpenIDConnectService implements DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(OpenIDConnectService.class);
 
+    /**
+     * Upper bound for keeping a validated token around as a fallback while the circuit breaker is open,
+     * the token expiration is the actual limit.
+     */
+    private static final int STALE_TOKEN_MAX_TTL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+
     private final KeycloakConfiguration configuration;
+    private final KeycloakHttpClient httpClient;
     private final String authToken;
+    private final OpenIDConnectDiscovery discovery;
+    private final JsonWebKeySetCache keySetCache;
+    private final JwtTokenValidator tokenValidator;
+    private final TokenIntrospectionCache tokenCache;
+    private final RejectedTokenCache rejectedTokens;
+    private final TokenIntrospectionCache staleTokens;
+    private final SingleFlight<String, ResponseEntity<AccessToken>> tokenValidations = new SingleFlight<>();
 
-    @Autowired
     public OpenIDConnectService(final KeycloakConfiguration configuration) {
+        this(configuration, new KeycloakHttpClient(configuration));
+    }
+
+    @Autowired
+    public OpenIDConnectService(final KeycloakConfiguration configuration, final KeycloakHttpClient httpClient) {
         this.configuration = configuration;
+        this.httpClient = httpClient;
+        this.discovery = new OpenIDConnectDiscovery(configuration, httpClient.getRestTemplate());
+        this.keySetCache = new JsonWebKeySetCache(configuration, httpClient.getRestTemplate(), discovery);
+        this.tokenValidator = new JwtTokenValidator(configuration, keySetCache, discovery);
+        this.tokenCache = new TokenIntrospectionCache(configuration.getTokenCacheSize(), configuration.getTokenCacheMaxTtlSeconds());
+        this.rejectedTokens = new RejectedTokenCache(configuration.getTokenCacheSize(), configuration.getRejectedTokenCacheTtlSeconds());
+        this.staleTokens = new TokenIntrospectionCache(httpClient.getCircuitBreaker().isEnabled() ? configuration.getTokenCacheSize() : 0,
+                STALE_TOKEN_MAX_TTL_SECONDS);
 
         final String authData = configuration.getClientId() + ":" + configuration.getClientSecret();
         authToken = Base64.getEncoder().encodeToString(authData.getBytes());
@@ -72,30 +107,57 @@ public class OpenIDConnectService {
             final ResponseEntity<AuthResponse> response = requestClient();
             return HttpStatus.OK.equals(response.getStatusCode()) ? response.getBody() : null;
         } catch (HttpClientErrorException e) {
-            if (HttpStatus.BAD_REQUEST.equals(e.getStatusCode()) && e.getResponseBodyAsString().contains("unauthorized_client")) {
-                log.error("Unable to validate token because the Client credentials are invalid. " +
-                          "Please make sure the credentials from keycloak is correctly set in the params or environment variable." +
-                          "For more details, refer to the wiki " + wiki(KeycloakWiki.EN_APP_CLIENT_CREDENTIALS), e);
-                throw new InvalidCredentialsException(e);
-            }
-            if (HttpStatus.UNAUTHORIZED.equals(e.getStatusCode())) {
-                log.error("There was an error while trying to load user because the " +
-                        "client on Keycloak doesn't have permission to do that. " +
-                        "The client needs to have Service Accounts enabled and the permission 'realm-admin' on client 'realm-management'. " +
-                        "For more details, refer to the wiki " + wiki(KeycloakWiki.EN_APP_CLIENT_FORBIDDEN), e);
-                throw new OidcException(e);
-            }
-            log.error("There was an error while trying to authenticate, " +
-                            "this might indicate a misconfiguration on Keycloak {}",
-                    e.getResponseBodyAsString(), e);
-            throw new OidcException(e);
+            throw apiAuthenticationError(e);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #authenticateAPI()}: the future fails with the same {@link OidcException}s.
+     */
+    public CompletableFuture<AuthResponse> authenticateAPIAsync() {
+        if (httpClient.getBlockingExecutor().isVirtual()) {
+            return httpClient.getBlockingExecutor().supplyAsync(() -> {
+                try {
+                    return authenticateAPI();
+                } catch (OidcException e) {
+                    throw new CompletionException(e);
+                }
+            });
         }
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
+        return httpClient.postFormAsync(url, createApiAuthenticationRequest(), AuthResponse.class)
+                .handle((response, e) -> {
+                    if (e == null) {
+                        return HttpStatus.OK.equals(response.getStatusCode()) ? response.getBody() : null;
+                    }
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    throw new CompletionException(cause instanceof HttpClientErrorException
+                            ? apiAuthenticationError((HttpClientErrorException) cause) : cause);
+                });
+    }
+
+    private OidcException apiAuthenticationError(final HttpClientErrorException e) {
+        if (HttpStatus.BAD_REQUEST.equals(e.getStatusCode()) && e.getResponseBodyAsString().contains("unauthorized_client")) {
+            log.error("Unable to validate token because the Client credentials are invalid. " +
+                      "Please make sure the credentials from keycloak is correctly set in the params or environment variable." +
+                      "For more details, refer to the wiki " + wiki(KeycloakWiki.EN_APP_CLIENT_CREDENTIALS), e);
+            return new InvalidCredentialsException(e);
+        }
+        if (HttpStatus.UNAUTHORIZED.equals(e.getStatusCode())) {
+            log.error("There was an error while trying to load user because the " +
+                    "client on Keycloak doesn't have permission to do that. " +
+                    "The client needs to have Service Accounts enabled and the permission 'realm-admin' on client 'realm-management'. " +
+                    "For more details, refer to the wiki " + wiki(KeycloakWiki.EN_APP_CLIENT_FORBIDDEN), e);
+            return new OidcException(e);
+        }
+        log.error("There was an error while trying to authenticate, " +
+                        "this might indicate a misconfiguration on Keycloak {}",
+                e.getResponseBodyAsString(), e);
+        return new OidcException(e);
     }
 
     public String getRedirectUrl(final String redirectUri, final String state) throws UnsupportedEncodingException {
-        return new StringBuilder(configuration.getAuthUrl())
-                .append("/realms/").append(configuration.getRealm())
-                .append("/protocol/openid-connect/auth")
+        return new StringBuilder(discovery.getEndpoints().getAuthorizationEndpoint().toString())
                 .append("?response_type=code")
                 .append("&client_id=").append(configuration.getClientId())
                 .append("&redirect_uri=").append(URLEncoder.encode(redirectUri, "UTF-8"))
@@ -106,16 +168,16 @@ public class OpenIDConnectService {
     }
 
     private ResponseEntity<AuthResponse> request(final String username, final String password) {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
         final HttpEntity<MultiValueMap<String, String>> req = createLoginRequest(username, password);
-        final String url = String.format("%s/realms/%s/protocol/openid-connect/token", configuration.getAuthUrl(), configuration.getRealm());
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
         return restTemplate.postForEntity(url, req, AuthResponse.class);
     }
 
     private ResponseEntity<AuthResponse> requestClient() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
         final HttpEntity<MultiValueMap<String, String>> req = createApiAuthenticationRequest();
-        final String url = String.format("%s/realms/%s/protocol/openid-connect/token", configuration.getAuthUrl(), configuration.getRealm());
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
         return restTemplate.postForEntity(url, req, AuthResponse.class);
     }
 
@@ -153,26 +215,154 @@ public class OpenIDConnectService {
     }
 
     public ResponseEntity<AccessToken> validateToken(final String bearerToken) {
-        final RestTemplate restTemplate = new RestTemplate();
+        if (!JwtTokenValidator.isWellFormed(bearerToken)) {
+            return new ResponseEntity<>(new AccessToken(), HttpStatus.OK);
+        }
+        final String digest = TokenDigest.of(bearerToken);
+        final Optional<ResponseEntity<AccessToken>> known = findKnownValidation(bearerToken, digest);
+        if (known.isPresent()) {
+            return known.get();
+        }
+        try {
+            return tokenValidations.execute(digest, () -> cacheValidation(digest, introspectToken(bearerToken)));
+        } catch (ResourceAccessException | HttpServerErrorException e) {
+            return findStaleValidation(digest, e).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #validateToken(String)}, sharing its caches and its pending introspections.
+     * Keycloak errors fail the future with the same exceptions the blocking method throws.
+     */
+    public CompletableFuture<ResponseEntity<AccessToken>> validateTokenAsync(final String bearerToken) {
+        if (!JwtTokenValidator.isWellFormed(bearerToken)) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(new AccessToken(), HttpStatus.OK));
+        }
+        final String digest = TokenDigest.of(bearerToken);
+        final Optional<ResponseEntity<AccessToken>> known = findKnownValidation(bearerToken, digest);
+        if (known.isPresent()) {
+            return CompletableFuture.completedFuture(known.get());
+        }
+        final CompletableFuture<ResponseEntity<AccessToken>> validation;
+        if (httpClient.getBlockingExecutor().isVirtual()) {
+            validation = tokenValidations.executeAsync(digest, () -> httpClient.getBlockingExecutor()
+                    .supplyAsync(() -> cacheValidation(digest, introspectToken(bearerToken))));
+        } else {
+            final URI url = discovery.getEndpoints().getIntrospectionEndpoint();
+            validation = tokenValidations.executeAsync(digest, () ->
+                    httpClient.postFormAsync(url, createValidationRequest(bearerToken), AccessToken.class)
+                            .thenApply(response -> cacheValidation(digest, response)));
+        }
+        return validation.handle((response, e) -> {
+            if (e == null) {
+                return response;
+            }
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            return findStaleValidation(digest, cause).orElseThrow(() -> new CompletionException(cause));
+        });
+    }
+
+    public OpenIDConnectDiscovery getDiscovery() {
+        return discovery;
+    }
+
+    public KeycloakHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public TokenIntrospectionCache getTokenCache() {
+        return tokenCache;
+    }
+
+    public RejectedTokenCache getRejectedTokens() {
+        return rejectedTokens;
+    }
+
+    private Optional<ResponseEntity<AccessToken>> findKnownValidation(final String bearerToken, final String digest) {
+        if (configuration.isLocalTokenValidation()) {
+            final Optional<AccessToken> accessToken = tokenValidator.validate(bearerToken);
+            if (accessToken.isPresent()) {
+                return Optional.of(new ResponseEntity<>(accessToken.get(), HttpStatus.OK));
+            }
+        }
+        if (rejectedTokens.isRejected(digest)) {
+            return Optional.of(new ResponseEntity<>(new AccessToken(), HttpStatus.OK));
+        }
+        final AccessToken cached = tokenCache.isEnabled() ? tokenCache.get(digest) : null;
+        return cached != null ? Optional.of(new ResponseEntity<>(cached, HttpStatus.OK)) : Optional.empty();
+    }
+
+    /**
+     * While the circuit breaker is open, tokens validated before keep being accepted until their expiration.
+     */
+    private Optional<ResponseEntity<AccessToken>> findStaleValidation(final String digest, final Throwable error) {
+        if (!(error instanceof ResourceAccessException || error instanceof HttpServerErrorException)
+                || !httpClient.getCircuitBreaker().isOpen()) {
+            return Optional.empty();
+        }
+        final AccessToken stale = staleTokens.get(digest);
+        if (stale == null) {
+            return Optional.empty();
+        }
+        log.debug("Keycloak is unavailable, accepting a previously validated token: {}", error.getMessage());
+        return Optional.of(new ResponseEntity<>(stale, HttpStatus.OK));
+    }
+
+    private ResponseEntity<AccessToken> cacheValidation(final String digest, final ResponseEntity<AccessToken> response) {
+        if (HttpStatus.OK.equals(response.getStatusCode()) && response.getBody() != null) {
+            if (!response.getBody().isActive()) {
+                rejectedTokens.reject(digest);
+            } else {
+                if (tokenCache.isEnabled()) {
+                    tokenCache.put(digest, response.getBody());
+                }
+                staleTokens.put(digest, response.getBody());
+            }
+        }
+        return response;
+    }
+
+    private ResponseEntity<AccessToken> introspectToken(final String bearerToken) {
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
         final HttpEntity<MultiValueMap<String, String>> req = createValidationRequest(bearerToken);
-        final String url = String.format("%s/realms/%s/protocol/openid-connect/token/introspect", configuration.getAuthUrl(), configuration.getRealm());
+        final URI url = discovery.getEndpoints().getIntrospectionEndpoint();
         return restTemplate.postForEntity(url, req, AccessToken.class);
     }
 
     public ResponseEntity<AuthResponse> refreshToken(final String refreshToken) {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
         final HttpEntity<MultiValueMap<String, String>> req = createRefreshTokenRequest(refreshToken);
-        final String url = String.format("%s/realms/%s/protocol/openid-connect/token", configuration.getAuthUrl(), configuration.getRealm());
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
         return restTemplate.postForEntity(url, req, AuthResponse.class);
     }
 
+    public CompletableFuture<ResponseEntity<AuthResponse>> refreshTokenAsync(final String refreshToken) {
+        if (httpClient.getBlockingExecutor().isVirtual()) {
+            return httpClient.getBlockingExecutor().supplyAsync(() -> refreshToken(refreshToken));
+        }
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
+        return httpClient.postFormAsync(url, createRefreshTokenRequest(refreshToken), AuthResponse.class);
+    }
+
     public ResponseEntity<AuthResponse> requestToken(final String code, final String redirectUri) {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = httpClient.getRestTemplate();
         final HttpEntity<MultiValueMap<String, String>> req = createAuthorizationCodeRequest(code, redirectUri);
-        final String url = String.format("%s/realms/%s/protocol/openid-connect/token", configuration.getAuthUrl(), configuration.getRealm());
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
         return restTemplate.postForEntity(url, req, AuthResponse.class);
     }
 
+    /**
+     * Non-blocking version of {@link #requestToken(String, String)}, e.g. to chain the code exchange with
+     * {@link #validateTokenAsync(String)} without holding a thread in between.
+     */
+    public CompletableFuture<ResponseEntity<AuthResponse>> requestTokenAsync(final String code, final String redirectUri) {
+        if (httpClient.getBlockingExecutor().isVirtual()) {
+            return httpClient.getBlockingExecutor().supplyAsync(() -> requestToken(code, redirectUri));
+        }
+        final URI url = discovery.getEndpoints().getTokenEndpoint();
+        return httpClient.postFormAsync(url, createAuthorizationCodeRequest(code, redirectUri), AuthResponse.class);
+    }
+
     private HttpEntity<MultiValueMap<String, String>> createAuthorizationCodeRequest(final String code, final String redirectUri) {
         final MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
         body.add("code", code);
@@ -196,10 +386,14 @@ public class OpenIDConnectService {
         return new HttpEntity<>(body, headers);
     }
 
+    @Override
+    public void destroy() {
+        keySetCache.shutdown();
+        discovery.shutdown();
+    }
+
     public String getLogoutUrl(final String redirectUri) throws UnsupportedEncodingException {
-        return new StringBuilder(configuration.getAuthUrl())
-                .append("/realms/").append(configuration.getRealm())
-                .append("/protocol/openid-connect/logout")
+        return new StringBuilder(discovery.getEndpoints().getEndSessionEndpoint().toString())
                 .append("?redirect_uri=").append(URLEncoder.encode(redirectUri, "UTF-8"))
                 .toString();
     }
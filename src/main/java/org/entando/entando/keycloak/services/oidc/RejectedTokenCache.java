@@ -0,0 +1,47 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Short lived, bounded set of the {@link TokenDigest}s of tokens Keycloak reported as not active, so that
+ * clients retrying with the same expired, revoked or forged token are rejected without calling Keycloak.
+ */
+public class RejectedTokenCache {
+
+    private final Cache<String, Boolean> cache;
+    private final boolean enabled;
+    private final LongAdder hits = new LongAdder();
+
+    public RejectedTokenCache(final int maxSize, final int ttlSeconds) {
+        this.enabled = ttlSeconds > 0;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isRejected(final String digest) {
+        if (!enabled || cache.getIfPresent(digest) == null) {
+            return false;
+        }
+        hits.increment();
+        return true;
+    }
+
+    public void reject(final String digest) {
+        if (enabled) {
+            cache.put(digest, Boolean.TRUE);
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+}
@@ -0,0 +1,79 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller runs the call, the others wait for it
+ * and get the same result, or the same exception.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    public V execute(final K key, final Supplier<V> call) {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final CompletableFuture<V> pending = calls.putIfAbsent(key, result);
+        if (pending != null) {
+            return await(pending);
+        }
+        try {
+            final V value = call.get();
+            result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, result);
+        }
+    }
+
+    /**
+     * Same as {@link #execute(Object, Supplier)} for calls that don't block: callers share the pending future
+     * instead of waiting on it. Blocking and non-blocking callers with the same key are coalesced together.
+     */
+    public CompletableFuture<V> executeAsync(final K key, final Supplier<CompletableFuture<V>> call) {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final CompletableFuture<V> pending = calls.putIfAbsent(key, result);
+        if (pending != null) {
+            return pending.thenApply(Function.identity());
+        }
+        try {
+            call.get().whenComplete((value, e) -> {
+                calls.remove(key, result);
+                if (e != null) {
+                    result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, result);
+            result.completeExceptionally(e);
+        }
+        return result.thenApply(Function.identity());
+    }
+
+    public int inFlight() {
+        return calls.size();
+    }
+
+    private static <V> V await(final CompletableFuture<V> pending) {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Fingerprint of a bearer token, used to key the token caches without keeping the tokens themselves.
+ */
+final class TokenDigest {
+
+    private TokenDigest() {
+    }
+
+    static String of(final String token) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
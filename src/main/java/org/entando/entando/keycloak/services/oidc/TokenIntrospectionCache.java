@@ -0,0 +1,84 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+
+/**
+ * Bounded cache of the active tokens returned by the introspection endpoint, keyed by {@link TokenDigest}.
+ * An entry never outlives the {@code exp} of its token nor {@code keycloak.token.cache.max.ttl.seconds}.
+ */
+public class TokenIntrospectionCache {
+
+    private final long maxTtlMillis;
+    private final Cache<String, CachedToken> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public TokenIntrospectionCache(final int maxSize, final int maxTtlSeconds) {
+        this.maxTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(maxTtlSeconds, 0));
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maxSize, 0))
+                .expireAfterWrite(this.maxTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return maxTtlMillis > 0;
+    }
+
+    public AccessToken get(final String digest) {
+        final CachedToken cached = cache.getIfPresent(digest);
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        if (cached.expiresAt <= System.currentTimeMillis()) {
+            cache.invalidate(digest);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.accessToken;
+    }
+
+    public void put(final String digest, final AccessToken accessToken) {
+        if (!accessToken.isActive() || accessToken.getExpiration() == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long expiresAt = Math.min(TimeUnit.SECONDS.toMillis(accessToken.getExpiration()), now + maxTtlMillis);
+        if (expiresAt > now) {
+            cache.put(digest, new CachedToken(accessToken, expiresAt));
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private static final class CachedToken {
+
+        private final AccessToken accessToken;
+        private final long expiresAt;
+
+        private CachedToken(final AccessToken accessToken, final long expiresAt) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+public class AdminEvent {
+
+    private long time;
+    private String operationType;
+    private String resourceType;
+    private String resourcePath;
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(final long time) {
+        this.time = time;
+    }
+
+    public String getOperationType() {
+        return operationType;
+    }
+
+    public void setOperationType(final String operationType) {
+        this.operationType = operationType;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public void setResourceType(final String resourceType) {
+        this.resourceType = resourceType;
+    }
+
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    public void setResourcePath(final String resourcePath) {
+        this.resourcePath = resourcePath;
+    }
+}
@@ -0,0 +1,44 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+/**
+ * The fields of a user that are listed and searched, without the required actions and the other details.
+ */
+public class BriefUserRepresentation extends UsernameRepresentation {
+
+    private boolean enabled;
+    private String firstName;
+    private String lastName;
+    private String email;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(final String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(final String lastName) {
+        this.lastName = lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(final String email) {
+        this.email = email;
+    }
+}
@@ -0,0 +1,59 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+public class JsonWebKey {
+
+    private String kid;
+    private String kty;
+    private String alg;
+    private String use;
+    private String n;
+    private String e;
+
+    public String getKid() {
+        return kid;
+    }
+
+    public void setKid(final String kid) {
+        this.kid = kid;
+    }
+
+    public String getKty() {
+        return kty;
+    }
+
+    public void setKty(final String kty) {
+        this.kty = kty;
+    }
+
+    public String getAlg() {
+        return alg;
+    }
+
+    public void setAlg(final String alg) {
+        this.alg = alg;
+    }
+
+    public String getUse() {
+        return use;
+    }
+
+    public void setUse(final String use) {
+        this.use = use;
+    }
+
+    public String getN() {
+        return n;
+    }
+
+    public void setN(final String n) {
+        this.n = n;
+    }
+
+    public String getE() {
+        return e;
+    }
+
+    public void setE(final String e) {
+        this.e = e;
+    }
+}
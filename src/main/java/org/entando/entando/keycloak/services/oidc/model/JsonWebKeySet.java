@@ -0,0 +1,16 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+import java.util.List;
+
+public class JsonWebKeySet {
+
+    private List<JsonWebKey> keys;
+
+    public List<JsonWebKey> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(final List<JsonWebKey> keys) {
+        this.keys = keys;
+    }
+}
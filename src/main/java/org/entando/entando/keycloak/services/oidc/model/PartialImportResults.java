@@ -0,0 +1,74 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+import java.util.List;
+
+public class PartialImportResults {
+
+    private int added;
+    private int skipped;
+    private List<Result> results;
+
+    public int getAdded() {
+        return added;
+    }
+
+    public void setAdded(final int added) {
+        this.added = added;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(final int skipped) {
+        this.skipped = skipped;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public void setResults(final List<Result> results) {
+        this.results = results;
+    }
+
+    public static class Result {
+
+        private String action;
+        private String resourceType;
+        private String resourceName;
+        private String id;
+
+        public String getAction() {
+            return action;
+        }
+
+        public void setAction(final String action) {
+            this.action = action;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public void setResourceType(final String resourceType) {
+            this.resourceType = resourceType;
+        }
+
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        public void setResourceName(final String resourceName) {
+            this.resourceName = resourceName;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(final String id) {
+            this.id = id;
+        }
+    }
+}
@@ -2,27 +2,13 @@ package org.entando.entando.keycloak.services.oidc.model;
 
 import java.util.List;
 
-public class UserRepresentation {
+public class UserRepresentation extends BriefUserRepresentation {
 
-    private String id;
     private long createdTimestamp;
-    private String username;
-    private boolean enabled;
     private boolean totp;
     private String emailVerified;
-    private String firstName;
-    private String lastName;
-    private String email;
     private List<String> requiredActions;
 
-    public String getId() {
-        return id;
-    }
-
-    public void setId(final String id) {
-        this.id = id;
-    }
-
     public long getCreatedTimestamp() {
         return createdTimestamp;
     }
@@ -31,22 +17,6 @@ public class UserRepresentation {
         this.createdTimestamp = createdTimestamp;
     }
 
-    public String getUsername() {
-        return username;
-    }
-
-    public void setUsername(final String username) {
-        this.username = username;
-    }
-
-    public boolean isEnabled() {
-        return enabled;
-    }
-
-    public void setEnabled(final boolean enabled) {
-        this.enabled = enabled;
-    }
-
     public boolean isTotp() {
         return totp;
     }
@@ -63,30 +33,6 @@ public class UserRepresentation {
         this.emailVerified = emailVerified;
     }
 
-    public String getFirstName() {
-        return firstName;
-    }
-
-    public void setFirstName(final String firstName) {
-        this.firstName = firstName;
-    }
-
-    public String getLastName() {
-        return lastName;
-    }
-
-    public void setLastName(final String lastName) {
-        this.lastName = lastName;
-    }
-
-    public String getEmail() {
-        return email;
-    }
-
-    public void setEmail(final String email) {
-        this.email = email;
-    }
-
     public List<String> getRequiredActions() {
         return requiredActions;
     }
@@ -0,0 +1,26 @@
+package org.entando.entando.keycloak.services.oidc.model;
+
+/**
+ * The id and username of a user, read when nothing else is needed.
+ */
+public class UsernameRepresentation {
+
+    private String id;
+    private String username;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(final String username) {
+        this.username = username;
+    }
+}
@@ -1,10 +1,12 @@
 package org.entando.entando.aps.servlet.security;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -13,23 +15,33 @@ import com.agiletec.aps.system.services.role.Permission;
 import com.agiletec.aps.system.services.user.IAuthenticationProviderManager;
 import com.agiletec.aps.system.services.user.IUserManager;
 import com.agiletec.aps.system.services.user.User;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import org.entando.entando.assertionHelper.KeycloakAuthenticationFilterAssertionHelper;
 import org.entando.entando.keycloak.services.KeycloakAuthorizationManager;
 import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.TokenUser;
+import org.entando.entando.keycloak.services.http.KeycloakHttpClient;
 import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
 import org.entando.entando.keycloak.services.oidc.model.AccessToken;
 import org.entando.entando.keycloak.services.oidc.model.TokenRoles;
 import org.entando.entando.mockhelper.UserMockHelper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -61,6 +73,12 @@ class KeycloakAuthenticationFilterTest {
     private Map<String, TokenRoles> resourceAccess;
     @Mock
     private TokenRoles tokenRoles;
+    @Mock
+    private AsyncContext asyncContext;
+    @Mock
+    private FilterChain chain;
+    @Mock
+    private KeycloakHttpClient httpClient;
 
     @InjectMocks
     private KeycloakAuthenticationFilter keycloakAuthenticationFilter;
@@ -119,12 +137,103 @@ class KeycloakAuthenticationFilterTest {
         verify(request, never()).getSession();
     }
 
+    @Test
+    void asyncAuthenticationShouldReleaseThreadAndDispatchWhenValidated() throws Exception {
+        final CompletableFuture<ResponseEntity<AccessToken>> validation = new CompletableFuture<>();
+        final ResponseEntity<AccessToken> validated = new ResponseEntity<>(accessToken, HttpStatus.OK);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(request.getHeader("Authorization")).thenReturn("Bearer jwt");
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.getServletPath()).thenReturn("/api");
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getRequest()).thenReturn(request);
+        when(oidcService.getHttpClient()).thenReturn(httpClient);
+        when(httpClient.getReadTimeout()).thenReturn(Duration.ofSeconds(10));
+        when(oidcService.validateTokenAsync("jwt")).thenReturn(validation);
+
+        keycloakAuthenticationFilter.doFilter(request, response, chain);
+
+        verify(request).startAsync(request, response);
+        verify(asyncContext).setTimeout(10_000);
+        verify(asyncContext, never()).dispatch();
+        verify(chain, never()).doFilter(any(), any());
+
+        validation.complete(validated);
+
+        verify(request).setAttribute(KeycloakAuthenticationFilter.TOKEN_VALIDATION_ATTRIBUTE, validated);
+        verify(asyncContext).dispatch();
+        verify(oidcService, never()).validateToken(anyString());
+    }
+
+    @Test
+    void asyncAuthenticationTimeoutShouldDispatchInactiveValidation() throws Exception {
+        final CompletableFuture<ResponseEntity<AccessToken>> validation = new CompletableFuture<>();
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(request.getHeader("Authorization")).thenReturn("Bearer jwt");
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.getServletPath()).thenReturn("/api");
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getRequest()).thenReturn(request);
+        when(oidcService.getHttpClient()).thenReturn(httpClient);
+        when(httpClient.getReadTimeout()).thenReturn(Duration.ofSeconds(10));
+        when(oidcService.validateTokenAsync("jwt")).thenReturn(validation);
+
+        keycloakAuthenticationFilter.doFilter(request, response, chain);
+
+        final ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+        listener.getValue().onTimeout(new AsyncEvent(asyncContext));
+
+        final ArgumentCaptor<Object> outcome = ArgumentCaptor.forClass(Object.class);
+        verify(request).setAttribute(eq(KeycloakAuthenticationFilter.TOKEN_VALIDATION_ATTRIBUTE), outcome.capture());
+        assertFalse(((AccessToken) ((ResponseEntity<?>) outcome.getValue()).getBody()).isActive());
+        verify(asyncContext).dispatch();
+
+        listener.getValue().onComplete(new AsyncEvent(asyncContext));
+        validation.complete(new ResponseEntity<>(accessToken, HttpStatus.OK));
+
+        verify(asyncContext).dispatch();
+    }
+
+    @Test
+    void asyncDispatchShouldUseStoredValidation() throws Exception {
+        this.mockForAttemptAuthenticationTest();
+        when(request.getAttribute(KeycloakAuthenticationFilter.TOKEN_VALIDATION_ATTRIBUTE))
+                .thenReturn(new ResponseEntity<>(accessToken, HttpStatus.OK));
+        when(tokenRoles.getRoles()).thenReturn(Collections.singletonList(Permission.SUPERUSER));
+
+        final User actual = (User) keycloakAuthenticationFilter.attemptAuthentication(request, response).getPrincipal();
+
+        assertEquals(1, actual.getAuthorizations().size());
+        verify(request).removeAttribute(KeycloakAuthenticationFilter.TOKEN_VALIDATION_ATTRIBUTE);
+        verify(oidcService, never()).validateToken(anyString());
+    }
+
+    @Test
+    void tokenPrincipalShouldNotReadTheUserFromKeycloak() throws Exception {
+        when(request.getHeader("Authorization")).thenReturn("Bearer jwt");
+        when(request.getSession()).thenReturn(session);
+        when(oidcService.validateToken("jwt")).thenReturn(new ResponseEntity<>(accessToken, HttpStatus.OK));
+        when(accessToken.isActive()).thenReturn(true);
+        when(accessToken.getUsername()).thenReturn(UserMockHelper.USERNAME);
+        when(configuration.isTokenPrincipal()).thenReturn(true);
+        final TokenUser tokenUser = new TokenUser(accessToken);
+        when(keycloakGroupManager.createUserFromToken(accessToken)).thenReturn(tokenUser);
+
+        final User actual = (User) keycloakAuthenticationFilter.attemptAuthentication(request, response).getPrincipal();
+
+        assertEquals(UserMockHelper.USERNAME, actual.getUsername());
+        verify(authenticationProviderManager, never()).getUser(anyString());
+    }
+
     private void mockForAttemptAuthenticationTest() throws Exception {
 
         when(request.getHeader("Authorization")).thenReturn("Bearer jwt");
         when(request.getSession()).thenReturn(session);
         doNothing().when(session).setAttribute(anyString(), any());
-        when(oidcService.validateToken(anyString())).thenReturn(new ResponseEntity<>(accessToken, HttpStatus.OK));
+        lenient().when(oidcService.validateToken(anyString())).thenReturn(new ResponseEntity<>(accessToken, HttpStatus.OK));
         when(accessToken.isActive()).thenReturn(true);
         when(accessToken.getUsername()).thenReturn(UserMockHelper.USERNAME);
         when(authenticationProviderManager.getUser(anyString())).thenReturn(UserMockHelper.mockUser());
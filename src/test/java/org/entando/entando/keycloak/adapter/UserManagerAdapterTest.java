@@ -0,0 +1,65 @@
+package org.entando.entando.keycloak.adapter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import com.agiletec.aps.system.services.user.User;
+import com.agiletec.aps.system.services.user.UserDetails;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.entando.entando.ent.exception.EntException;
+import org.entando.entando.keycloak.services.UserProvisioningReport;
+import org.entando.entando.keycloak.services.UserProvisioningReport.Outcome;
+import org.junit.jupiter.api.Test;
+
+class UserManagerAdapterTest {
+
+    @Test
+    void addUsersWithoutKeycloakShouldReportExistingUsers() throws EntException {
+        final UserManagerAdapter adapter = spy(new UserManagerAdapter());
+        final UserDetails created = user("created");
+        final UserDetails existing = user("existing");
+        final UserDetails addedMeanwhile = user("added-meanwhile");
+        final UserDetails failed = user("failed");
+        doReturn(null).when(adapter).getUser("created");
+        doReturn(existing).when(adapter).getUser("existing");
+        doReturn(null, addedMeanwhile).when(adapter).getUser("added-meanwhile");
+        doReturn(null).when(adapter).getUser("failed");
+        doNothing().when(adapter).addUser(created);
+        doThrow(new EntException("duplicate")).when(adapter).addUser(addedMeanwhile);
+        doThrow(new EntException("error")).when(adapter).addUser(failed);
+
+        final UserProvisioningReport report = adapter.addUsers(Stream.of(created, existing, addedMeanwhile, failed));
+
+        assertThat(report.getEntries())
+                .extracting(UserProvisioningReport.Entry::getUsername, UserProvisioningReport.Entry::getOutcome)
+                .containsExactly(
+                        tuple("created", Outcome.CREATED),
+                        tuple("existing", Outcome.EXISTING),
+                        tuple("added-meanwhile", Outcome.EXISTING),
+                        tuple("failed", Outcome.FAILED));
+        assertThat(report.getFailedUsernames()).containsExactly("failed");
+    }
+
+    @Test
+    void getUsersWithoutKeycloakShouldClampNegativeBounds() throws EntException {
+        final UserManagerAdapter adapter = spy(new UserManagerAdapter());
+        final List<UserDetails> users = Arrays.asList(user("admin"), user("editor"), user("reader"));
+        doReturn(users).when(adapter).getUsers();
+
+        assertThat(adapter.getUsers(-1, 2, null)).containsExactly(users.get(0), users.get(1));
+        assertThat(adapter.getUsers(1, -1, null)).isEmpty();
+        assertThat(adapter.getUsers(2, Integer.MAX_VALUE, null)).containsExactly(users.get(2));
+    }
+
+    private static UserDetails user(final String username) {
+        final User user = new User();
+        user.setUsername(username);
+        return user;
+    }
+}
@@ -0,0 +1,115 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.agiletec.aps.system.services.user.User;
+import com.agiletec.aps.system.services.user.UserDetails;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.entando.entando.keycloak.services.UserProvisioningReport.Outcome;
+import org.entando.entando.keycloak.services.oidc.model.PartialImportResults;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+@ExtendWith(MockitoExtension.class)
+class BulkUserProvisionerTest {
+
+    private static final int PARALLELISM = 2;
+
+    @Mock
+    private KeycloakService keycloakService;
+
+    private KeycloakUserManager userManager;
+
+    @BeforeEach
+    void setUp() {
+        userManager = new KeycloakUserManager(null, keycloakService, null);
+        when(keycloakService.getProvisioningParallelism()).thenReturn(PARALLELISM);
+        when(keycloakService.executeAsync(any())).thenAnswer(invocation ->
+                CompletableFuture.supplyAsync(invocation.<Supplier<?>>getArgument(0)));
+    }
+
+    @Test
+    void testUsersAreImportedInBatches() {
+        when(keycloakService.isPartialImportAvailable()).thenReturn(true);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        when(keycloakService.importUsers(anyList())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            final List<Map<String, Object>> users = invocation.getArgument(0);
+            final PartialImportResults results = new PartialImportResults();
+            results.setResults(users.stream()
+                    .map(user -> result((String) user.get("username")))
+                    .collect(Collectors.toList()));
+            inFlight.decrementAndGet();
+            return Optional.of(results);
+        });
+
+        final UserProvisioningReport report = userManager.addUsers(IntStream.range(0, 1000)
+                .mapToObj(i -> user(String.format("User-%04d", i))));
+
+        assertThat(report.count(Outcome.CREATED)).isEqualTo(500);
+        assertThat(report.count(Outcome.EXISTING)).isEqualTo(500);
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(PARALLELISM);
+        verify(keycloakService).cacheUserId("User-0000", "id-user-0000");
+    }
+
+    @Test
+    void testUsersAreAddedOneByOneWithoutPartialImport() {
+        when(keycloakService.importUsers(anyList())).thenReturn(Optional.empty());
+        when(keycloakService.createUser(any(UserRepresentation.class))).thenAnswer(invocation -> {
+            final String username = invocation.<UserRepresentation>getArgument(0).getUsername();
+            if ("existing".equals(username)) {
+                throw HttpClientErrorException.create(HttpStatus.CONFLICT, "Conflict", null, null, null);
+            }
+            return "id-" + username;
+        });
+        lenient().doThrow(HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Unavailable", null, null, null))
+                .when(keycloakService).resetPassword("id-failing", "password", true);
+
+        final UserProvisioningReport report = userManager.addUsers(Stream.of(user("new"), user("existing"), user("failing")));
+
+        assertThat(report.count(Outcome.CREATED)).isEqualTo(1);
+        assertThat(report.count(Outcome.EXISTING)).isEqualTo(1);
+        assertThat(report.getFailedUsernames()).containsExactly("failing");
+        // the failed user is removed, so that provisioning it again works
+        verify(keycloakService).removeUser("id-failing");
+    }
+
+    private static UserDetails user(final String username) {
+        final User user = new User();
+        user.setUsername(username);
+        user.setPassword("password");
+        return user;
+    }
+
+    private static PartialImportResults.Result result(final String username) {
+        final PartialImportResults.Result result = new PartialImportResults.Result();
+        final int index = Integer.parseInt(username.substring(username.indexOf('-') + 1));
+        result.setAction(index % 2 == 0 ? "ADDED" : "SKIPPED");
+        result.setResourceType("USER");
+        result.setResourceName(username.toLowerCase());
+        result.setId("id-" + username.toLowerCase());
+        return result;
+    }
+}
@@ -7,9 +7,11 @@ import com.agiletec.aps.system.services.group.GroupManager;
 import com.agiletec.aps.system.services.role.Role;
 import com.agiletec.aps.system.services.role.RoleManager;
 import com.agiletec.aps.system.services.user.UserDetails;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -17,6 +19,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -35,12 +38,37 @@ class KeycloakAuthorizationManagerTest {
     @Mock private AuthorizationManager authorizationManager;
     @Mock private GroupManager groupManager;
     @Mock private RoleManager roleManager;
+    @Mock private UserDetailsCache userCache;
 
     private KeycloakAuthorizationManager manager;
 
     @BeforeEach
     public void setUp() {
-        manager = new KeycloakAuthorizationManager(configuration, authorizationManager, groupManager, roleManager);
+        manager = new KeycloakAuthorizationManager(configuration, authorizationManager, groupManager, roleManager, userCache,
+                new ProvisionedUserRegistry((Path) null));
+    }
+
+    @Test
+    void testCreateUserFromToken() throws EntException {
+        final Authorization authorization = new Authorization(new Group(), new Role());
+        when(authorizationManager.getUserAuthorizations("admin")).thenReturn(new ArrayList<>(Arrays.asList(authorization)));
+
+        final AccessToken accessToken = new AccessToken();
+        accessToken.setActive(true);
+        accessToken.setUsername("admin");
+        accessToken.setEmail("admin@example.com");
+        accessToken.setName("Admin User");
+        accessToken.setExpiration(1700000000L);
+
+        final TokenUser user = manager.createUserFromToken(accessToken);
+
+        assertThat(user.getUsername()).isEqualTo("admin");
+        assertThat(user.isDisabled()).isFalse();
+        assertThat(user.isCredentialsNotExpired()).isTrue();
+        assertThat(user.getEmail()).isEqualTo("admin@example.com");
+        assertThat(user.getName()).isEqualTo("Admin User");
+        assertThat(user.getExpiration()).isEqualTo(1700000000L);
+        assertThat(user.getAuthorizations()).containsExactly(authorization);
     }
 
     @Test
@@ -108,6 +136,48 @@ class KeycloakAuthorizationManagerTest {
         verify(userDetails, times(0)).addAuthorization(any());
     }
 
+    @Test
+    void testUserProvisionedOncePerConfiguration() throws EntException {
+        when(configuration.getDefaultAuthorizations()).thenReturn("readers");
+        when(userDetails.getUsername()).thenReturn("admin");
+        when(userDetails.getAuthorizations()).thenReturn(new ArrayList<>());
+        when(groupManager.getGroup(anyString())).thenReturn(null);
+
+        manager.processNewUser(userDetails);
+        manager.processNewUser(userDetails);
+
+        verify(authorizationManager, times(1)).addUserAuthorization("admin", "readers", null);
+
+        when(configuration.getDefaultAuthorizations()).thenReturn("readers,writers");
+        manager.processNewUser(userDetails);
+
+        verify(authorizationManager, times(1)).addUserAuthorization("admin", "writers", null);
+        verify(userCache, times(3)).invalidate("admin");
+    }
+
+    @Test
+    void testDefaultAuthorizationsResolvedOnAssignment() throws EntException {
+        final UserDetails editor = mock(UserDetails.class);
+        final Group readers = new Group();
+        readers.setName("readers");
+        when(configuration.getDefaultAuthorizations()).thenReturn(" readers:read-all , readers:read-all");
+        when(userDetails.getUsername()).thenReturn("admin");
+        when(editor.getUsername()).thenReturn("editor");
+        when(userDetails.getAuthorizations()).thenReturn(new ArrayList<>());
+        when(editor.getAuthorizations()).thenReturn(new ArrayList<>());
+        when(groupManager.getGroup("readers")).thenReturn(readers).thenReturn(null);
+        when(roleManager.getRole(anyString())).thenReturn(null);
+
+        manager.processNewUser(userDetails);
+        manager.processNewUser(editor);
+
+        verify(groupManager, times(2)).getGroup("readers");
+        verify(groupManager, times(1)).addGroup(any());
+        verify(roleManager, times(2)).getRole("read-all");
+        verify(authorizationManager, times(1)).addUserAuthorization("admin", "readers", "read-all");
+        verify(authorizationManager, times(1)).addUserAuthorization("editor", "readers", "read-all");
+    }
+
     private Authorization authorization(final String groupName, final String roleName) {
         final Group group = new Group();
         group.setName(groupName);
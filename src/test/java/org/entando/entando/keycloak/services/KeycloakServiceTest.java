@@ -0,0 +1,197 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.entando.entando.keycloak.services.http.KeycloakHttpClient;
+import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
+import org.entando.entando.keycloak.services.oidc.model.AuthResponse;
+import org.entando.entando.keycloak.services.oidc.model.BriefUserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class KeycloakServiceTest {
+
+    private static final int USERS = 250;
+    private static final int PAGE_SIZE = 100;
+
+    @Mock
+    private OpenIDConnectService oidcService;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger staleCount = new AtomicInteger();
+    private final Set<String> searchedWith = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+    private KeycloakService keycloakService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/admin/realms/entando/users", this::listUsers);
+        server.start();
+
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setAuthUrl("http://localhost:" + server.getAddress().getPort() + "/auth");
+        configuration.setRealm("entando");
+        configuration.setUserPageSize(PAGE_SIZE);
+        final AuthResponse authResponse = new AuthResponse();
+        authResponse.setAccessToken("token");
+        lenient().when(oidcService.authenticateAPI()).thenReturn(authResponse);
+        keycloakService = new KeycloakService(configuration, oidcService, new KeycloakHttpClient(configuration));
+    }
+
+    @AfterEach
+    void tearDown() {
+        keycloakService.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    void testStreamUsersFetchesPagesLazily() {
+        final List<String> firstUsers = keycloakService.streamUsers(null)
+                .limit(10)
+                .map(UserRepresentation::getUsername)
+                .collect(Collectors.toList());
+
+        assertThat(firstUsers).hasSize(10).startsWith("user-0000");
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testStreamUsersReadsEveryPage() {
+        final List<String> usernames = keycloakService.streamUsers(null)
+                .map(UserRepresentation::getUsername)
+                .collect(Collectors.toList());
+
+        assertThat(usernames).hasSize(USERS).doesNotHaveDuplicates().endsWith("user-0249");
+        assertThat(requests.get()).isEqualTo(3);
+    }
+
+    @Test
+    void testStreamUsersWithSearchText() {
+        assertThat(keycloakService.listUsers("user-01")).hasSize(100);
+        assertThat(keycloakService.listUsers("missing")).isEmpty();
+        assertThat(keycloakService.countUsers("user-01")).isEqualTo(100);
+        assertThat(searchedWith).contains("username").doesNotContain("search");
+    }
+
+    @Test
+    void testSearchWithReplicaMatchesEveryField() {
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setAuthUrl("http://localhost:" + server.getAddress().getPort() + "/auth");
+        configuration.setRealm("entando");
+        configuration.setUserPageSize(PAGE_SIZE);
+        configuration.setUserDirectoryReplica(true);
+        final KeycloakService replicated = new KeycloakService(configuration, oidcService, new KeycloakHttpClient(configuration));
+        try {
+            assertThat(replicated.listUsers("user-01", 0, 10)).hasSize(10);
+            assertThat(searchedWith).contains("search").doesNotContain("username");
+        } finally {
+            replicated.destroy();
+        }
+    }
+
+    @Test
+    void testScanUsersInOrder() {
+        final List<String> usernames = keycloakService.scanUsers(null, true)
+                .map(UserRepresentation::getUsername)
+                .collect(Collectors.toList());
+
+        assertThat(usernames).isEqualTo(keycloakService.streamUsers(null)
+                .map(UserRepresentation::getUsername)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testScanUsersUnordered() {
+        final List<String> usernames = keycloakService.scanUsers("user-01", false)
+                .map(UserRepresentation::getUsername)
+                .collect(Collectors.toList());
+
+        assertThat(usernames).hasSize(100).doesNotHaveDuplicates().allMatch(username -> username.startsWith("user-01"));
+    }
+
+    @Test
+    void testScanUsersReadsUsersCreatedAfterCounting() {
+        staleCount.set(200);
+
+        assertThat(keycloakService.scanUsers(null, true)).hasSize(USERS);
+        assertThat(keycloakService.countUsers(null)).isEqualTo(200);
+    }
+
+    @Test
+    void testProjections() {
+        final List<UsernameRepresentation> usernames = keycloakService.listUsers(null, 0, 10, UserProjection.USERNAME);
+        assertThat(usernames).hasSize(10).allMatch(user -> user.getClass() == UsernameRepresentation.class);
+        assertThat(usernames.get(0).getUsername()).isEqualTo("user-0000");
+
+        assertThat(keycloakService.listUsers(null, 0, 10, UserProjection.BRIEF))
+                .allMatch(user -> user.getClass() == BriefUserRepresentation.class && user.isEnabled());
+        assertThat(keycloakService.listUsers(null, 0, 10, UserProjection.FULL))
+                .allMatch(user -> user.getRequiredActions().contains("UPDATE_PASSWORD"));
+    }
+
+    @Test
+    void testFindUserWithoutUsername() {
+        assertThat(keycloakService.findUserByUsername(null)).isEmpty();
+        assertThat(keycloakService.findUserByUsername(" ")).isEmpty();
+        assertThat(keycloakService.getUserId(null)).isEmpty();
+        assertThat(requests.get()).isZero();
+    }
+
+    private void listUsers(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final Map<String, String> params = new HashMap<>();
+        final String query = exchange.getRequestURI().getQuery();
+        for (final String param : query != null ? query.split("&") : new String[0]) {
+            final String[] pair = param.split("=", 2);
+            params.put(pair[0], pair[1]);
+        }
+        final String text = params.getOrDefault("username", params.getOrDefault("search", ""));
+        searchedWith.addAll(params.keySet());
+        if (exchange.getRequestURI().getPath().endsWith("/count")) {
+            final long count = IntStream.range(0, USERS).filter(i -> String.format("user-%04d", i).contains(text)).count();
+            respond(exchange, String.valueOf(staleCount.get() > 0 ? staleCount.get() : count));
+            return;
+        }
+        final String body = IntStream.range(0, USERS)
+                .mapToObj(i -> String.format("user-%04d", i))
+                .filter(username -> username.contains(text))
+                .skip(Integer.parseInt(params.get("first")))
+                .limit(Integer.parseInt(params.get("max")))
+                .map(username -> "{\"id\":\"" + username + "\",\"username\":\"" + username + "\",\"enabled\":true"
+                        + ("true".equals(params.get("briefRepresentation")) ? "" : ",\"requiredActions\":[\"UPDATE_PASSWORD\"]") + "}")
+                .collect(Collectors.joining(",", "[", "]"));
+        respond(exchange, body);
+    }
+
+    private static void respond(final HttpExchange exchange, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
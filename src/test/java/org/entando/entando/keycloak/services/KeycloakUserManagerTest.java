@@ -1,9 +1,36 @@
 package org.entando.entando.keycloak.services;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.agiletec.aps.system.services.authorization.Authorization;
+import com.agiletec.aps.system.services.authorization.IAuthorizationManager;
+import com.agiletec.aps.system.services.group.Group;
+import com.agiletec.aps.system.services.role.Role;
+import com.agiletec.aps.system.services.user.User;
+import com.agiletec.aps.system.services.user.UserDetails;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.entando.entando.keycloak.services.oidc.model.UsernameRepresentation;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
 
 class KeycloakUserManagerTest {
 
@@ -23,4 +50,132 @@ class KeycloakUserManagerTest {
         assertThat(userManager.getParameterNames().isEmpty()).isTrue();
     }
 
+    @Test
+    void getUsersShouldPageAndCountWithoutServiceAccounts() {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        final List<String> usernames = IntStream.range(0, 20)
+                .mapToObj(i -> String.format("user-%02d", i))
+                .collect(Collectors.toList());
+        usernames.addAll(Arrays.asList("aaron", "sam", "tom", "service-account-api", "service-account-web"));
+        Collections.sort(usernames);
+        final List<UserRepresentation> realm = usernames.stream()
+                .map(KeycloakUserManagerTest::userRepresentation)
+                .collect(Collectors.toList());
+        when(keycloakService.listUsers(isNull(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            final int first = invocation.getArgument(1);
+            final int max = invocation.getArgument(2);
+            return realm.subList(Math.min(first, realm.size()), Math.min(first + max, realm.size()));
+        });
+        when(keycloakService.countUsers(null)).thenReturn(realm.size());
+        when(keycloakService.streamUsers(UserSearchIndex.SERVICE_ACCOUNT_PREFIX, UserProjection.USERNAME))
+                .thenAnswer(invocation -> realm.stream()
+                        .filter(user -> user.getUsername().startsWith("service-account-"))
+                        .map(UsernameRepresentation.class::cast));
+        userManager = new KeycloakUserManager(null, keycloakService, null);
+        final List<String> expected = usernames.stream()
+                .filter(username -> !username.startsWith("service-account-"))
+                .collect(Collectors.toList());
+
+        for (int offset = 0; offset <= expected.size(); offset++) {
+            assertThat(userManager.getUsers(offset, 3, null)).extracting(UserDetails::getUsername)
+                    .containsExactlyElementsOf(expected.subList(offset, Math.min(offset + 3, expected.size())));
+        }
+        assertThat(userManager.countUsers(null)).isEqualTo(23);
+        verify(keycloakService, never()).streamUsers(null, UserProjection.FULL);
+        verify(keycloakService, never()).scanUsers(null, false, UserProjection.USERNAME);
+    }
+
+    @Test
+    void getUserShouldBeCachedUntilUpdated() throws Exception {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        final IAuthorizationManager authorizationManager = mock(IAuthorizationManager.class);
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setUserCacheTtlSeconds(30);
+        when(keycloakService.findUserByUsername("admin")).thenReturn(Optional.of(userRepresentation("admin")));
+        when(keycloakService.getUserId("admin")).thenReturn(Optional.of("admin"));
+        when(authorizationManager.getUserAuthorizations("admin")).thenReturn(new ArrayList<>());
+        userManager = new KeycloakUserManager(authorizationManager, keycloakService, null, new UserDetailsCache(configuration), null);
+
+        final UserDetails first = userManager.getUser("admin");
+        first.addAuthorization(new Authorization(new Group(), new Role()));
+        final UserDetails second = userManager.getUser("admin");
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getAuthorizations()).isEmpty();
+        verify(keycloakService, times(1)).findUserByUsername("admin");
+        verify(authorizationManager, times(1)).getUserAuthorizations("admin");
+
+        userManager.changePassword("admin", "password");
+        userManager.getUser("admin");
+        verify(keycloakService, times(2)).findUserByUsername("admin");
+    }
+
+    @Test
+    void getUserShouldReadUsersMissingFromTheReplica() throws Exception {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        final IAuthorizationManager authorizationManager = mock(IAuthorizationManager.class);
+        final UserDirectoryReplica directory = new UserDirectoryReplica(keycloakService, 30, 0);
+        when(keycloakService.scanUsers(null, false)).thenReturn(Stream.of(userRepresentation("admin")));
+        directory.synchronize();
+        when(keycloakService.getUserDirectory()).thenReturn(Optional.of(directory));
+        when(keycloakService.findUserByUsername("self-registered")).thenReturn(Optional.of(userRepresentation("self-registered")));
+        when(authorizationManager.getUserAuthorizations("self-registered")).thenReturn(new ArrayList<>());
+        userManager = new KeycloakUserManager(authorizationManager, keycloakService, null);
+
+        assertThat(userManager.getUser("self-registered").getUsername()).isEqualTo("self-registered");
+        assertThat(directory.findByUsername("self-registered")).isPresent();
+
+        userManager.getUser("self-registered");
+        verify(keycloakService, times(1)).findUserByUsername("self-registered");
+    }
+
+    @Test
+    void removeUserShouldForgetTheProvisionedUser() {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        final ProvisionedUserRegistry provisionedUsers = new ProvisionedUserRegistry((Path) null);
+        provisionedUsers.markProvisioned("admin", "readers");
+        when(keycloakService.getUserId("admin")).thenReturn(Optional.of("id"));
+        userManager = new KeycloakUserManager(null, keycloakService, null, null, provisionedUsers);
+
+        userManager.removeUser("admin");
+
+        verify(keycloakService).removeUser("id");
+        assertThat(provisionedUsers.isProvisioned("admin", "readers")).isFalse();
+    }
+
+    @Test
+    void updateUserShouldSendOnlyTheChangedAttributes() {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        when(keycloakService.getUserId("admin")).thenReturn(Optional.of("id"));
+        userManager = new KeycloakUserManager(null, keycloakService, null);
+
+        final User user = new User();
+        user.setUsername("admin");
+        user.setDisabled(true);
+        userManager.updateUser(user);
+
+        verify(keycloakService).updateUser("id", Collections.singletonMap("enabled", false));
+    }
+
+    @Test
+    void writeWithStaleIdShouldLookUpTheUserAgain() {
+        final KeycloakService keycloakService = mock(KeycloakService.class);
+        when(keycloakService.getUserId("admin")).thenReturn(Optional.of("stale"), Optional.of("current"));
+        doThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null))
+                .when(keycloakService).resetPassword("stale", "password", false);
+        userManager = new KeycloakUserManager(null, keycloakService, null);
+
+        userManager.changePassword("admin", "password");
+
+        verify(keycloakService).invalidateUserId("admin");
+        verify(keycloakService).resetPassword("current", "password", false);
+        verify(keycloakService).updateUser("current", Collections.singletonMap("requiredActions", Collections.emptyList()));
+    }
+
+    private static UserRepresentation userRepresentation(final String username) {
+        final UserRepresentation user = new UserRepresentation();
+        user.setId(username);
+        user.setUsername(username);
+        user.setEnabled(true);
+        return user;
+    }
 }
@@ -0,0 +1,119 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProvisionedUserRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testProvisionedUsersSurviveRestarts() {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("admin", "readers");
+        registry.markProvisioned("editor", "readers");
+        registry.markProvisioned("admin", "readers");
+
+        final ProvisionedUserRegistry restarted = new ProvisionedUserRegistry(file);
+
+        assertThat(restarted.size()).isEqualTo(2);
+        assertThat(restarted.isProvisioned("admin", "readers")).isTrue();
+        assertThat(restarted.isProvisioned("editor", "readers")).isTrue();
+        assertThat(restarted.isProvisioned("guest", "readers")).isFalse();
+    }
+
+    @Test
+    void testConfigurationChangeProvisionsAgain() {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("admin", "readers");
+
+        assertThat(registry.isProvisioned("admin", "readers,writers")).isFalse();
+
+        registry.markProvisioned("editor", "readers,writers");
+
+        final ProvisionedUserRegistry restarted = new ProvisionedUserRegistry(file);
+        assertThat(restarted.size()).isEqualTo(1);
+        assertThat(restarted.isProvisioned("admin", "readers,writers")).isFalse();
+        assertThat(restarted.isProvisioned("editor", "readers,writers")).isTrue();
+    }
+
+    @Test
+    void testRemovedUsersProvisionedAgain() throws Exception {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("admin", "readers");
+        registry.markProvisioned("editor", "readers");
+
+        registry.remove("admin");
+
+        assertThat(registry.isProvisioned("admin", "readers")).isFalse();
+        assertThat(Files.readAllLines(file)).containsExactly("readers", "admin", "editor", "-admin");
+        final ProvisionedUserRegistry restarted = new ProvisionedUserRegistry(file);
+        assertThat(restarted.isProvisioned("admin", "readers")).isFalse();
+        assertThat(restarted.isProvisioned("editor", "readers")).isTrue();
+    }
+
+    @Test
+    void testRemovalsCompactFile() throws Exception {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("admin", "readers");
+        registry.markProvisioned("editor", "readers");
+        registry.markProvisioned("guest", "readers");
+        registry.remove("admin");
+        registry.markProvisioned("admin", "readers");
+
+        final ProvisionedUserRegistry restarted = new ProvisionedUserRegistry(file);
+        assertThat(restarted.isProvisioned("admin", "readers")).isTrue();
+
+        restarted.remove("guest");
+
+        assertThat(Files.readAllLines(file)).containsExactlyInAnyOrder("readers", "admin", "editor");
+        assertThat(new ProvisionedUserRegistry(file).size()).isEqualTo(2);
+    }
+
+    @Test
+    void testTombstoneLikeUsernames() {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("-admin", "readers");
+        registry.markProvisioned("\\editor", "readers");
+        registry.markProvisioned("admin", "readers");
+        registry.remove("admin");
+
+        final ProvisionedUserRegistry restarted = new ProvisionedUserRegistry(file);
+        assertThat(restarted.size()).isEqualTo(2);
+        assertThat(restarted.isProvisioned("-admin", "readers")).isTrue();
+        assertThat(restarted.isProvisioned("\\editor", "readers")).isTrue();
+    }
+
+    @Test
+    void testConfigurationChangeCompactsFile() throws Exception {
+        final Path file = tempDir.resolve("provisioned-users");
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry(file);
+        registry.markProvisioned("admin", "readers");
+        registry.markProvisioned("editor", "readers");
+
+        registry.markProvisioned("editor", "readers,writers");
+
+        assertThat(Files.readAllLines(file)).containsExactly("readers,writers", "editor");
+    }
+
+    @Test
+    void testInMemoryRegistry() {
+        final ProvisionedUserRegistry registry = new ProvisionedUserRegistry((Path) null);
+        registry.markProvisioned("admin", "readers");
+        registry.markProvisioned(null, "readers");
+
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.isProvisioned("admin", "readers")).isTrue();
+        assertThat(registry.isProvisioned(null, "readers")).isFalse();
+    }
+}
@@ -0,0 +1,103 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.entando.entando.keycloak.services.oidc.OpenIDConnectService;
+import org.entando.entando.keycloak.services.oidc.model.AuthResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ServiceAccountTokenManagerTest {
+
+    @Mock
+    private OpenIDConnectService oidcService;
+
+    private final AtomicInteger authentications = new AtomicInteger();
+    private ServiceAccountTokenManager tokenManager;
+
+    @BeforeEach
+    void setUp() {
+        tokenManager = new ServiceAccountTokenManager(oidcService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tokenManager.shutdown();
+    }
+
+    @Test
+    void testConcurrentCallersShareOneAuthentication() throws Exception {
+        when(oidcService.authenticateAPI()).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return authResponse("300");
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<String>> tokens = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                tokens.add(executor.submit(() -> {
+                    start.await();
+                    return tokenManager.getToken();
+                }));
+            }
+            start.countDown();
+
+            for (final Future<String> token : tokens) {
+                assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo("token-1");
+            }
+            assertThat(tokenManager.getToken()).isEqualTo("token-1");
+            verify(oidcService, times(1)).authenticateAPI();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testTokenIsRenewedBeforeExpiry() throws Exception {
+        when(oidcService.authenticateAPI()).thenAnswer(invocation -> authResponse("2"));
+
+        assertThat(tokenManager.getToken()).isEqualTo("token-1");
+        Thread.sleep(2_000);
+
+        verify(oidcService, atLeast(2)).authenticateAPI();
+        assertThat(tokenManager.getToken()).isNotEqualTo("token-1");
+    }
+
+    @Test
+    void testInvalidatedTokenIsReplaced() throws Exception {
+        when(oidcService.authenticateAPI()).thenAnswer(invocation -> authResponse(null));
+
+        final String token = tokenManager.getToken();
+        tokenManager.invalidate("some-other-token");
+        assertThat(tokenManager.getToken()).isEqualTo(token);
+
+        tokenManager.invalidate(token);
+        assertThat(tokenManager.getToken()).isEqualTo("token-2");
+        verify(oidcService, times(2)).authenticateAPI();
+    }
+
+    private AuthResponse authResponse(final String expiresIn) {
+        final AuthResponse authResponse = new AuthResponse();
+        authResponse.setAccessToken("token-" + authentications.incrementAndGet());
+        authResponse.setExpiresIn(expiresIn);
+        return authResponse;
+    }
+}
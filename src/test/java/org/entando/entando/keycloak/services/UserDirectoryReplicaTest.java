@@ -0,0 +1,143 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.entando.entando.keycloak.services.oidc.model.AdminEvent;
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class UserDirectoryReplicaTest {
+
+    @Mock
+    private KeycloakService keycloakService;
+
+    private UserDirectoryReplica directory;
+
+    @BeforeEach
+    void setUp() {
+        directory = new UserDirectoryReplica(keycloakService, 30, 0);
+    }
+
+    @Test
+    void testInitialLoadServesReadsAndSearches() {
+        when(keycloakService.scanUsers(null, false)).thenReturn(Stream.of(
+                user("3", "charlie"), user("1", "Alice"), user("2", "alfred")));
+        assertThat(directory.isReady()).isFalse();
+
+        directory.synchronize();
+
+        assertThat(directory.isReady()).isTrue();
+        assertThat(directory.findByUsername("alice")).map(UserRepresentation::getId).contains("1");
+        assertThat(usernames(directory.search(null))).containsExactly("alfred", "Alice", "charlie");
+        assertThat(usernames(directory.search("AL"))).containsExactly("alfred", "Alice");
+    }
+
+    @Test
+    void testFailedLoadIsRetried() {
+        when(keycloakService.scanUsers(null, false))
+                .thenThrow(new IllegalStateException("unavailable"))
+                .thenReturn(Stream.of(user("1", "alice")));
+
+        directory.synchronize();
+        assertThat(directory.isReady()).isFalse();
+
+        directory.synchronize();
+        assertThat(directory.isReady()).isTrue();
+        assertThat(directory.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testAdminEventsAreApplied() {
+        when(keycloakService.scanUsers(null, false)).thenReturn(Stream.of(
+                user("1", "alice"), user("2", "bob"), user("3", "carol")));
+        directory.synchronize();
+
+        final long now = System.currentTimeMillis();
+        when(keycloakService.listUserAdminEvents(anyLong(), anyInt(), anyInt())).thenReturn(Arrays.asList(
+                event(now + 3, "DELETE", "users/2"),
+                event(now + 2, "UPDATE", "users/1"),
+                event(now + 1, "CREATE", "users/4"),
+                event(now, "ACTION", "users/3/reset-password")));
+        final UserRepresentation renamed = user("1", "alicia");
+        renamed.setEnabled(false);
+        when(keycloakService.getUser("1")).thenReturn(Optional.of(renamed));
+        when(keycloakService.getUser("3")).thenReturn(Optional.empty());
+        when(keycloakService.getUser("4")).thenReturn(Optional.of(user("4", "dave")));
+
+        directory.synchronize();
+
+        assertThat(usernames(directory.search(null))).containsExactly("alicia", "dave");
+        assertThat(directory.findByUsername("alice")).isEmpty();
+        assertThat(directory.findByUsername("alicia")).map(UserRepresentation::isEnabled).contains(false);
+        verify(keycloakService, never()).getUser("2");
+    }
+
+    @Test
+    void testLocalWritesAreVisibleRightAway() {
+        when(keycloakService.scanUsers(null, false)).thenReturn(Stream.empty());
+        when(keycloakService.listUserAdminEvents(anyLong(), anyInt(), anyInt())).thenReturn(Collections.emptyList());
+        directory.synchronize();
+
+        directory.put(user("1", "alice"));
+        assertThat(directory.findByUsername("alice")).isPresent();
+
+        directory.remove("1");
+        directory.synchronize();
+        assertThat(directory.findByUsername("alice")).isEmpty();
+    }
+
+    @Test
+    void testFullReloadCatchesChangesWithoutEvents() throws Exception {
+        directory = new UserDirectoryReplica(keycloakService, 30, 1);
+        final UserRepresentation locked = user("1", "alice");
+        locked.setEnabled(false);
+        when(keycloakService.scanUsers(null, false))
+                .thenReturn(Stream.of(user("1", "alice"), user("2", "bob")))
+                .thenReturn(Stream.of(locked, user("3", "carol")));
+        directory.synchronize();
+
+        Thread.sleep(1_100);
+        directory.synchronize();
+
+        assertThat(usernames(directory.search(null))).containsExactly("alice", "carol");
+        assertThat(directory.findByUsername("alice")).map(UserRepresentation::isEnabled).contains(false);
+        verify(keycloakService, never()).listUserAdminEvents(anyLong(), anyInt(), anyInt());
+    }
+
+    private static UserRepresentation user(final String id, final String username) {
+        final UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEnabled(true);
+        return user;
+    }
+
+    private static AdminEvent event(final long time, final String operationType, final String resourcePath) {
+        final AdminEvent event = new AdminEvent();
+        event.setTime(time);
+        event.setOperationType(operationType);
+        event.setResourceType("USER");
+        event.setResourcePath(resourcePath);
+        return event;
+    }
+
+    private static List<String> usernames(final Stream<UserRepresentation> users) {
+        return users.map(UserRepresentation::getUsername).collect(Collectors.toList());
+    }
+}
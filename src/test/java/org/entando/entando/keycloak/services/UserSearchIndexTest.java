@@ -0,0 +1,66 @@
+package org.entando.entando.keycloak.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.entando.entando.keycloak.services.oidc.model.UserRepresentation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class UserSearchIndexTest {
+
+    private final UserSearchIndex index = new UserSearchIndex();
+
+    @BeforeEach
+    void setUp() {
+        index.add(user("1", "jdoe", "john.doe@example.com", "John", "Doe"));
+        index.add(user("2", "asmith", "anna@example.org", "Anna", "Smith"));
+        index.add(user("3", "service-account-entando-app", null, null, null));
+    }
+
+    @Test
+    void testShortAndLongQueriesMatchAnyField() {
+        assertThat(index.search("j")).containsExactly("1");
+        assertThat(index.search("SM")).containsExactly("2");
+        assertThat(index.search("example")).containsExactlyInAnyOrder("1", "2");
+        assertThat(index.search("doe@exa")).containsExactly("1");
+        assertThat(index.search("")).containsExactlyInAnyOrder("1", "2");
+    }
+
+    @Test
+    void testMatchesDontSpanFields() {
+        index.add(user("4", "bob", null, "Bob", "Obo"));
+        // "bob" and "obo" are both indexed for the user, but no single field contains "bobo"
+        assertThat(index.search("bobo")).isEmpty();
+        assertThat(index.search("obo")).containsExactly("4");
+        assertThat(index.search("ohn.d")).containsExactly("1");
+    }
+
+    @Test
+    void testServiceAccountsAreNotIndexed() {
+        assertThat(index.search("service")).isEmpty();
+        assertThat(index.search("entando-app")).isEmpty();
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testUpdateAndRemoveReplacePostings() {
+        index.add(user("1", "jroe", "john.roe@example.com", "John", "Roe"));
+        assertThat(index.search("doe")).isEmpty();
+        assertThat(index.search("roe")).containsExactly("1");
+
+        index.remove("1");
+        assertThat(index.search("john")).isEmpty();
+        assertThat(index.search("example")).containsExactly("2");
+    }
+
+    private static UserRepresentation user(final String id, final String username, final String email,
+                                           final String firstName, final String lastName) {
+        final UserRepresentation user = new UserRepresentation();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        return user;
+    }
+}
@@ -0,0 +1,69 @@
+package org.entando.entando.keycloak.services.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BlockingCallExecutorTest {
+
+    @Test
+    void testPlatformThreadPool() throws Exception {
+        final BlockingCallExecutor executor = new BlockingCallExecutor(false, 2);
+        try {
+            final String thread = executor.supplyAsync(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+
+            assertThat(executor.isVirtual()).isFalse();
+            assertThat(thread).startsWith("keycloak-io-");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testVirtualThreadsWhenSupported() throws Exception {
+        final boolean supported = Runtime.version().feature() >= 21;
+        final BlockingCallExecutor executor = new BlockingCallExecutor(true, 2);
+        try {
+            final String thread = executor.supplyAsync(() -> Thread.currentThread().toString()).get(5, TimeUnit.SECONDS);
+
+            assertThat(executor.isVirtual()).isEqualTo(supported);
+            assertThat(thread.startsWith("VirtualThread")).isEqualTo(supported);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPlatformThreadsAreBounded() throws Exception {
+        final BlockingCallExecutor executor = new BlockingCallExecutor(false, 4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            final List<CompletableFuture<Integer>> calls = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                calls.add(executor.supplyAsync(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return 1;
+                }));
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+            assertThat(calls).allMatch(call -> call.join() == 1);
+            assertThat(maxRunning.get()).isBetween(1, 4);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.entando.entando.keycloak.services.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.entando.entando.keycloak.services.http.CircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    @Test
+    void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 30);
+
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void testSingleTrialCallAfterOpenPeriod() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(circuitBreaker.isOpen()).isFalse();
+    }
+
+    @Test
+    void testDisabled() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(0, 30);
+
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onFailure();
+        }
+        assertThat(circuitBreaker.isOpen()).isFalse();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+}
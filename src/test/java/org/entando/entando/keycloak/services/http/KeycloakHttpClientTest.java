@@ -0,0 +1,236 @@
+package org.entando.entando.keycloak.services.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+class KeycloakHttpClientTest {
+
+    private final AtomicInteger introspections = new AtomicInteger();
+    private final CountDownLatch slowResponse = new CountDownLatch(1);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final ExecutorService serverExecutor = Executors.newCachedThreadPool();
+    private HttpServer server;
+    private String baseUrl;
+    private KeycloakHttpClient httpClient;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/introspect", exchange -> {
+            introspections.incrementAndGet();
+            final String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            final boolean valid = body.contains("token=valid")
+                    && exchange.getRequestHeaders().getFirst("Content-Type").startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+            respond(exchange, valid ? 200 : 400, valid
+                    ? "{\"active\":true,\"username\":\"admin\",\"exp\":1700000000,\"client_id\":\"entando-app\"}"
+                    : "{\"error\":\"invalid_request\"}");
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                slowResponse.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "{\"active\":false}");
+        });
+        server.createContext("/busy", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            respond(exchange, 200, "{\"active\":true,\"username\":\"admin\"}");
+        });
+        server.createContext("/moved", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/introspect");
+            exchange.sendResponseHeaders(HttpStatus.SEE_OTHER.value(), -1);
+            exchange.close();
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setHttpMaxConnections(2);
+        httpClient = new KeycloakHttpClient(configuration);
+    }
+
+    @AfterEach
+    void tearDown() {
+        slowResponse.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void testPostForm() {
+        final ResponseEntity<AccessToken> response = httpClient.getRestTemplate()
+                .postForEntity(baseUrl + "/introspect", form("valid"), AccessToken.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().isActive()).isTrue();
+        assertThat(response.getBody().getUsername()).isEqualTo("admin");
+        assertThat(response.getBody().getExpiration()).isEqualTo(1700000000L);
+        assertThat(httpClient.getAvailableConnections()).isEqualTo(2);
+    }
+
+    @Test
+    void testClientError() {
+        final HttpClientErrorException e = Assertions.assertThrows(HttpClientErrorException.class, () ->
+                httpClient.getRestTemplate().postForEntity(baseUrl + "/introspect", form("invalid"), AccessToken.class));
+
+        assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(e.getResponseBodyAsString()).contains("invalid_request");
+        assertThat(httpClient.getAvailableConnections()).isEqualTo(2);
+    }
+
+    @Test
+    void testRedirectsNotFollowed() {
+        final ResponseEntity<String> response = httpClient.getRestTemplate()
+                .postForEntity(baseUrl + "/moved", form("valid"), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SEE_OTHER);
+        assertThat(introspections.get()).isZero();
+    }
+
+    @Test
+    void testPostFormAsync() throws Exception {
+        final ResponseEntity<AccessToken> response = httpClient
+                .postFormAsync(URI.create(baseUrl + "/introspect"), form("valid"), AccessToken.class)
+                .get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().getUsername()).isEqualTo("admin");
+    }
+
+    @Test
+    void testPostFormAsyncWaitsForConnection() throws Exception {
+        final KeycloakHttpClient singleConnection = newClient(1, 5_000);
+        final CompletableFuture<ResponseEntity<AccessToken>> slow = singleConnection
+                .postFormAsync(URI.create(baseUrl + "/slow"), form("valid"), AccessToken.class);
+        final CompletableFuture<ResponseEntity<AccessToken>> waiting = singleConnection
+                .postFormAsync(URI.create(baseUrl + "/introspect"), form("valid"), AccessToken.class);
+
+        Thread.sleep(200);
+        assertThat(waiting).isNotDone();
+        slowResponse.countDown();
+
+        assertThat(slow.get(5, TimeUnit.SECONDS).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(waiting.get(5, TimeUnit.SECONDS).getBody().getUsername()).isEqualTo("admin");
+        assertThat(singleConnection.getAvailableConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void testPostFormAsyncRefusedAfterWait() throws Exception {
+        final KeycloakHttpClient singleConnection = newClient(1, 100);
+        final CompletableFuture<ResponseEntity<AccessToken>> slow = singleConnection
+                .postFormAsync(URI.create(baseUrl + "/slow"), form("valid"), AccessToken.class);
+        final CompletableFuture<ResponseEntity<AccessToken>> refused = singleConnection
+                .postFormAsync(URI.create(baseUrl + "/introspect"), form("valid"), AccessToken.class);
+
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> refused.get(5, TimeUnit.SECONDS));
+        assertThat(e.getCause()).isInstanceOf(ResourceAccessException.class);
+        assertThat(e.getCause().getCause()).isInstanceOf(KeycloakUnavailableException.class);
+        assertThat(introspections.get()).isZero();
+
+        slowResponse.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+        assertThat(singleConnection.getAvailableConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void testBlockingCallsAreBounded() throws Exception {
+        for (final boolean virtualThreads : new boolean[]{false, true}) {
+            final KeycloakConfiguration configuration = new KeycloakConfiguration();
+            configuration.setHttpMaxConnections(4);
+            configuration.setHttpBulkheadWaitMillis(10_000);
+            configuration.setHttpVirtualThreads(virtualThreads);
+            final KeycloakHttpClient client = new KeycloakHttpClient(configuration);
+            maxInFlight.set(0);
+            try {
+                final List<CompletableFuture<AccessToken>> calls = new ArrayList<>();
+                for (int i = 0; i < 40; i++) {
+                    calls.add(client.getBlockingExecutor().supplyAsync(() -> client.getRestTemplate()
+                            .postForObject(baseUrl + "/busy", form("valid"), AccessToken.class)));
+                }
+                CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+                assertThat(calls).allMatch(call -> call.join().isActive());
+                assertThat(maxInFlight.get()).isBetween(1, 4);
+                assertThat(client.getAvailableConnections()).isEqualTo(4);
+            } finally {
+                client.destroy();
+            }
+        }
+    }
+
+    @Test
+    void testClientErrorAsync() {
+        final CompletableFuture<ResponseEntity<AccessToken>> response = httpClient
+                .postFormAsync(URI.create(baseUrl + "/introspect"), form("invalid"), AccessToken.class);
+
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertThat(e.getCause()).isInstanceOf(HttpClientErrorException.class);
+        assertThat(((HttpClientErrorException) e.getCause()).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    private static KeycloakHttpClient newClient(final int maxConnections, final int waitMillis) {
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setHttpMaxConnections(maxConnections);
+        configuration.setHttpBulkheadWaitMillis(waitMillis);
+        return new KeycloakHttpClient(configuration);
+    }
+
+    private static HttpEntity<MultiValueMap<String, String>> form(final String token) {
+        final MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
+        body.add("token", token);
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        return new HttpEntity<>(body, headers);
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.entando.entando.keycloak.services.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+class RetryExecutorTest {
+
+    private final RetryExecutor retryExecutor = new RetryExecutor(3, Duration.ofSeconds(2), Duration.ofMillis(10));
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger invalidations = new AtomicInteger();
+
+    @Test
+    void testUnauthorizedIsRetriedOnceWithNewToken() {
+        assertThrows(HttpClientErrorException.Unauthorized.class, () -> execute(true,
+                () -> { throw HttpClientErrorException.create(HttpStatus.UNAUTHORIZED, "Unauthorized", null, null, null); }));
+
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(invalidations.get()).isEqualTo(1);
+        assertThat(retryExecutor.getMetrics()).containsEntry("unauthorized", 1L);
+    }
+
+    @Test
+    void testOverloadIsRetriedHonoringRetryAfter() {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "0");
+        final String result = execute(false, () -> {
+            if (calls.get() < 3) {
+                throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(retryExecutor.getMetrics()).containsEntry("throttled", 2L).containsEntry("exhausted", 0L);
+    }
+
+    @Test
+    void testRetriesStopAtMaxAttemptsAndDeadline() {
+        assertThrows(HttpServerErrorException.ServiceUnavailable.class, () -> execute(true,
+                () -> { throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Unavailable", null, null, null); }));
+        assertThat(calls.get()).isEqualTo(3);
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "60");
+        calls.set(0);
+        assertThrows(HttpServerErrorException.ServiceUnavailable.class, () -> execute(true,
+                () -> { throw HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Unavailable", headers, null, null); }));
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(retryExecutor.getMetrics()).containsEntry("exhausted", 2L);
+    }
+
+    @Test
+    void testIoErrorsAreRetriedOnlyWhenIdempotent() {
+        final ResourceAccessException ioError = new ResourceAccessException("reset", new IOException("reset"));
+        assertThrows(ResourceAccessException.class, () -> execute(false, () -> { throw ioError; }));
+        assertThat(calls.get()).isEqualTo(1);
+
+        calls.set(0);
+        assertThrows(ResourceAccessException.class, () -> execute(true, () -> { throw ioError; }));
+        assertThat(calls.get()).isEqualTo(3);
+
+        calls.set(0);
+        final ResourceAccessException refused = new ResourceAccessException("open", new KeycloakUnavailableException("open"));
+        assertThrows(ResourceAccessException.class, () -> execute(true, () -> { throw refused; }));
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    private <T> T execute(final boolean idempotent, final Supplier<T> call) {
+        return retryExecutor.execute(idempotent, () -> {
+            calls.incrementAndGet();
+            return call.get();
+        }, invalidations::incrementAndGet);
+    }
+}
@@ -0,0 +1,45 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BackgroundSchedulerTest {
+
+    @Test
+    void testPeriodicTaskStartedOnce() throws Exception {
+        final BackgroundScheduler scheduler = new BackgroundScheduler("test-scheduler");
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        try {
+            scheduler.startWithFixedDelay(() -> {
+                first.incrementAndGet();
+                ran.countDown();
+            }, 0, 1, TimeUnit.HOURS);
+            scheduler.startWithFixedDelay(second::incrementAndGet, 0, 1, TimeUnit.HOURS);
+
+            assertThat(ran.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            scheduler.shutdown();
+        }
+        assertThat(first.get()).isEqualTo(1);
+        assertThat(second.get()).isZero();
+    }
+
+    @Test
+    void testNothingRunsAfterShutdown() throws Exception {
+        final BackgroundScheduler scheduler = new BackgroundScheduler("test-scheduler");
+        final AtomicInteger runs = new AtomicInteger();
+        scheduler.shutdown();
+
+        scheduler.startWithFixedDelay(runs::incrementAndGet, 0, 1, TimeUnit.HOURS);
+        scheduler.schedule(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(runs.get()).isZero();
+    }
+}
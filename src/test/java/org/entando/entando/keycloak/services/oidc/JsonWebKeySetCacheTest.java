@@ -0,0 +1,135 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.JsonWebKey;
+import org.entando.entando.keycloak.services.oidc.model.JsonWebKeySet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+class JsonWebKeySetCacheTest {
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private RSAPublicKey publicKey;
+    private JsonWebKeySetCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setTokenKeysRefreshSeconds(300);
+        cache = new JsonWebKeySetCache(configuration, null, null) {
+            @Override
+            JsonWebKeySet fetchKeySet() {
+                fetches.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return keySet("key-1", publicKey);
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void testKeyIsLoadedOnce() {
+        release.countDown();
+        assertThat(cache.getKey("key-1")).isEqualTo(publicKey);
+        assertThat(cache.getKey("key-1")).isEqualTo(publicKey);
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testConcurrentMissesShareOneRefresh() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<PublicKey>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> cache.getKey("key-1")));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (final Future<PublicKey> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(publicKey);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testUnknownKeysAreRateLimited() {
+        release.countDown();
+        assertThat(cache.getKey("made-up-1")).isNull();
+        assertThat(cache.getKey("made-up-2")).isNull();
+        assertThat(cache.getKey("made-up-3")).isNull();
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testUnavailableKeysFailUntilLoaded() {
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setTokenKeysRefreshSeconds(300);
+        final JsonWebKeySetCache unavailable = new JsonWebKeySetCache(configuration, null, null) {
+            @Override
+            JsonWebKeySet fetchKeySet() {
+                fetches.incrementAndGet();
+                throw new ResourceAccessException("Connection refused");
+            }
+        };
+        try {
+            Assertions.assertThrows(ResourceAccessException.class, () -> unavailable.getKey("key-1"));
+            Assertions.assertThrows(IllegalStateException.class, () -> unavailable.getKey("key-1"));
+            assertThat(fetches.get()).isEqualTo(1);
+        } finally {
+            unavailable.shutdown();
+        }
+    }
+
+    private static JsonWebKeySet keySet(final String kid, final RSAPublicKey publicKey) {
+        final JsonWebKey key = new JsonWebKey();
+        key.setKid(kid);
+        key.setKty("RSA");
+        key.setUse("sig");
+        key.setAlg("RS256");
+        key.setN(encode(publicKey.getModulus()));
+        key.setE(encode(publicKey.getPublicExponent()));
+        final JsonWebKeySet keySet = new JsonWebKeySet();
+        keySet.setKeys(Collections.singletonList(key));
+        return keySet;
+    }
+
+    private static String encode(final BigInteger value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.toByteArray());
+    }
+}
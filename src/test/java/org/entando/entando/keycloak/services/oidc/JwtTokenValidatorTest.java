@@ -0,0 +1,197 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.client.ResourceAccessException;
+
+@ExtendWith(MockitoExtension.class)
+class JwtTokenValidatorTest {
+
+    private static final String AUTH_URL = "http://localhost:8081/auth";
+    private static final String ISSUER = AUTH_URL + "/realms/entando";
+
+    @Mock private JsonWebKeySetCache keySetCache;
+    @Mock private OpenIDConnectDiscovery discovery;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private KeyPair keyPair;
+    private JwtTokenValidator validator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setAuthUrl(AUTH_URL);
+        configuration.setRealm("entando");
+        configuration.setClientId("entando-app");
+        configuration.setPublicClientId("entando-web");
+
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        lenient().when(keySetCache.getKey("key-1")).thenReturn(keyPair.getPublic());
+        lenient().when(discovery.getEndpoints()).thenReturn(OpenIDConnectEndpoints.ofKeycloak(ISSUER));
+
+        validator = new JwtTokenValidator(configuration, keySetCache, discovery);
+    }
+
+    @Test
+    void testValidToken() throws Exception {
+        final Map<String, Object> claims = claims();
+        claims.put("resource_access", Collections.singletonMap("entando-app",
+                Collections.singletonMap("roles", Collections.singletonList("superuser"))));
+
+        final Optional<AccessToken> accessToken = validator.validate(sign("RS256", "key-1", claims));
+
+        assertThat(accessToken).isPresent();
+        assertThat(accessToken.get().isActive()).isTrue();
+        assertThat(accessToken.get().getUsername()).isEqualTo("admin");
+        assertThat(accessToken.get().getEmail()).isEqualTo("admin@entando.com");
+        assertThat(accessToken.get().getResourceAccess().get("entando-app").getRoles()).containsExactly("superuser");
+    }
+
+    @Test
+    void testExpiredToken() throws Exception {
+        final Map<String, Object> claims = claims();
+        claims.put("exp", now() - 120);
+        assertInactive(sign("RS256", "key-1", claims));
+    }
+
+    @Test
+    void testTokenNotYetValid() throws Exception {
+        final Map<String, Object> claims = claims();
+        claims.put("nbf", now() + 120);
+        assertInactive(sign("RS256", "key-1", claims));
+    }
+
+    @Test
+    void testTokenFromAnotherIssuer() throws Exception {
+        final Map<String, Object> claims = claims();
+        claims.put("iss", AUTH_URL + "/realms/master");
+        assertInactive(sign("RS256", "key-1", claims));
+    }
+
+    @Test
+    void testTokenForAnotherAudience() throws Exception {
+        final Map<String, Object> claims = claims();
+        claims.put("aud", "another-client");
+        claims.put("azp", "another-client");
+        assertInactive(sign("RS256", "key-1", claims));
+    }
+
+    @Test
+    void testTamperedToken() throws Exception {
+        final String token = sign("RS256", "key-1", claims());
+        final Map<String, Object> claims = claims();
+        claims.put("preferred_username", "root");
+        final String[] parts = token.split("\\.");
+        assertInactive(parts[0] + "." + encode(claims) + "." + parts[2]);
+    }
+
+    @Test
+    void testUnknownKey() throws Exception {
+        assertInactive(sign("RS256", "key-2", claims()));
+    }
+
+    @Test
+    void testUnavailableKeysAreIntrospected() throws Exception {
+        when(keySetCache.getKey("key-3")).thenThrow(new ResourceAccessException("Connection refused"));
+
+        assertThat(validator.validate(sign("RS256", "key-3", claims()))).isEmpty();
+    }
+
+    @Test
+    void testTokenSignedWithAnotherKey() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        when(keySetCache.getKey("key-4")).thenReturn(generator.generateKeyPair().getPublic());
+
+        assertInactive(sign("RS256", "key-4", claims()));
+    }
+
+    @Test
+    void testMalformedToken() {
+        assertInactive("not-a-jwt");
+    }
+
+    @Test
+    void testWellFormedTokens() throws Exception {
+        assertThat(JwtTokenValidator.isWellFormed(sign("RS256", "key-1", claims()))).isTrue();
+        assertThat(JwtTokenValidator.isWellFormed(null)).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("jwt")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0.")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9..c2ln")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0.c2ln.c2ln")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0=.c2ln")).isFalse();
+        assertThat(JwtTokenValidator.isWellFormed("eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxIn0.c2ln")).isTrue();
+    }
+
+    @Test
+    void testUnsupportedAlgorithm() throws Exception {
+        final String token = encode(header("HS256", "key-1")) + "." + encode(claims()) + ".c2lnbmF0dXJl";
+        assertThat(validator.validate(token)).isEmpty();
+    }
+
+    private void assertInactive(final String token) {
+        final Optional<AccessToken> accessToken = validator.validate(token);
+        assertThat(accessToken).isPresent();
+        assertThat(accessToken.get().isActive()).isFalse();
+    }
+
+    private Map<String, Object> claims() {
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("iss", ISSUER);
+        claims.put("aud", "account");
+        claims.put("azp", "entando-web");
+        claims.put("typ", "Bearer");
+        claims.put("exp", now() + 300);
+        claims.put("iat", now());
+        claims.put("preferred_username", "admin");
+        claims.put("email", "admin@entando.com");
+        return claims;
+    }
+
+    private Map<String, Object> header(final String alg, final String kid) {
+        final Map<String, Object> header = new HashMap<>();
+        header.put("alg", alg);
+        header.put("kid", kid);
+        header.put("typ", "JWT");
+        return header;
+    }
+
+    private String sign(final String alg, final String kid, final Map<String, Object> claims) throws Exception {
+        final String content = encode(header(alg, kid)) + "." + encode(claims);
+        final Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(content.getBytes(StandardCharsets.US_ASCII));
+        return content + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+    }
+
+    private String encode(final Map<String, Object> json) throws Exception {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(json));
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,112 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.entando.entando.keycloak.services.KeycloakConfiguration;
+import org.entando.entando.keycloak.services.oidc.model.OpenIDConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+class OpenIDConnectDiscoveryTest {
+
+    private static final String ISSUER = "http://localhost:8081/auth/realms/entando";
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicReference<OpenIDConfiguration> document = new AtomicReference<>();
+    private volatile CountDownLatch fetchStarted = new CountDownLatch(1);
+    private volatile CountDownLatch fetchAllowed = new CountDownLatch(0);
+    private OpenIDConnectDiscovery discovery;
+
+    @BeforeEach
+    void setUp() {
+        final KeycloakConfiguration configuration = new KeycloakConfiguration();
+        configuration.setAuthUrl("http://localhost:8081/auth");
+        configuration.setRealm("entando");
+        discovery = new OpenIDConnectDiscovery(configuration, null) {
+            @Override
+            OpenIDConfiguration fetchConfiguration() {
+                fetches.incrementAndGet();
+                fetchStarted.countDown();
+                try {
+                    fetchAllowed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (document.get() == null) {
+                    throw new ResourceAccessException("Connection refused");
+                }
+                return document.get();
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        discovery.shutdown();
+    }
+
+    @Test
+    void testDiscoveredEndpointsAreResolvedOnce() {
+        final OpenIDConfiguration configuration = new OpenIDConfiguration();
+        configuration.setIssuer("https://sso.entando.org/realms/entando");
+        configuration.setTokenEndpoint("https://sso.entando.org/realms/entando/protocol/openid-connect/token");
+        document.set(configuration);
+
+        final OpenIDConnectEndpoints endpoints = discovery.getEndpoints();
+
+        assertThat(endpoints.getIssuer()).isEqualTo("https://sso.entando.org/realms/entando");
+        assertThat(endpoints.getTokenEndpoint()).isEqualTo(URI.create("https://sso.entando.org/realms/entando/protocol/openid-connect/token"));
+        assertThat(endpoints.getJwksUri()).isEqualTo(URI.create(ISSUER + "/protocol/openid-connect/certs"));
+        assertThat(discovery.getEndpoints()).isSameAs(endpoints);
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testKeycloakLayoutUntilDiscoveryWorks() {
+        final OpenIDConnectEndpoints endpoints = discovery.getEndpoints();
+
+        assertThat(endpoints.getIssuer()).isEqualTo(ISSUER);
+        assertThat(endpoints.getIntrospectionEndpoint()).isEqualTo(URI.create(ISSUER + "/protocol/openid-connect/token/introspect"));
+        assertThat(discovery.getEndpoints()).isSameAs(endpoints);
+        assertThat(fetches.get()).isEqualTo(1);
+
+        final OpenIDConfiguration configuration = new OpenIDConfiguration();
+        configuration.setIssuer(ISSUER);
+        configuration.setIntrospectionEndpoint("https://proxy.entando.org/introspect");
+        document.set(configuration);
+        discovery.refresh();
+
+        assertThat(discovery.getEndpoints().getIntrospectionEndpoint()).isEqualTo(URI.create("https://proxy.entando.org/introspect"));
+    }
+
+    @Test
+    void testRetryRunsInBackground() throws Exception {
+        final OpenIDConnectEndpoints defaults = discovery.getEndpoints();
+        final OpenIDConfiguration configuration = new OpenIDConfiguration();
+        configuration.setIssuer(ISSUER);
+        configuration.setIntrospectionEndpoint("https://proxy.entando.org/introspect");
+        document.set(configuration);
+        fetchStarted = new CountDownLatch(1);
+        fetchAllowed = new CountDownLatch(1);
+        discovery.lastAttempt = 0;
+
+        assertThat(discovery.getEndpoints()).isSameAs(defaults);
+        assertThat(fetchStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(discovery.getEndpoints()).isSameAs(defaults);
+        fetchAllowed.countDown();
+
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (discovery.getEndpoints() == defaults && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(discovery.getEndpoints().getIntrospectionEndpoint()).isEqualTo(URI.create("https://proxy.entando.org/introspect"));
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,110 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 20;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testConcurrentCallsAreCoalesced() throws Exception {
+        final List<Future<String>> results = submit(() -> {
+            calls.incrementAndGet();
+            await();
+            return "result";
+        });
+        release.countDown();
+
+        for (final Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void testFailureIsSharedAndNotRemembered() throws Exception {
+        final List<Future<String>> results = submit(() -> {
+            calls.incrementAndGet();
+            await();
+            throw new IllegalStateException("unavailable");
+        });
+        release.countDown();
+
+        for (final Future<String> result : results) {
+            final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.execute("key", () -> "retried")).isEqualTo("retried");
+    }
+
+    @Test
+    void testAsyncCallsAreCoalesced() throws Exception {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+        final Supplier<CompletableFuture<String>> call = () -> {
+            calls.incrementAndGet();
+            return pending;
+        };
+
+        final CompletableFuture<String> first = singleFlight.executeAsync("key", call);
+        final CompletableFuture<String> second = singleFlight.executeAsync("key", call);
+        final Future<String> blocking = executor.submit(() -> singleFlight.execute("key", () -> "not called"));
+        Thread.sleep(100);
+        assertThat(first).isNotDone();
+        pending.complete("result");
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(blocking.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    private List<Future<String>> submit(final Supplier<String> call) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(CALLERS);
+        final List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> {
+                started.countDown();
+                return singleFlight.execute("key", call);
+            }));
+        }
+        started.await(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        return results;
+    }
+
+    private void await() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.entando.entando.keycloak.services.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.entando.entando.keycloak.services.oidc.model.AccessToken;
+import org.junit.jupiter.api.Test;
+
+class TokenIntrospectionCacheTest {
+
+    private final TokenIntrospectionCache cache = new TokenIntrospectionCache(2, 60);
+
+    @Test
+    void testActiveTokenIsCached() {
+        final AccessToken accessToken = accessToken(true, now() + 300);
+        cache.put(TokenDigest.of("token"), accessToken);
+
+        assertThat(cache.get(TokenDigest.of("token"))).isSameAs(accessToken);
+        assertThat(cache.get(TokenDigest.of("another-token"))).isNull();
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testInactiveOrExpiredTokensAreNotCached() {
+        cache.put(TokenDigest.of("inactive"), accessToken(false, now() + 300));
+        cache.put(TokenDigest.of("expired"), accessToken(true, now() - 1));
+        cache.put(TokenDigest.of("no-exp"), accessToken(true, null));
+
+        assertThat(cache.get(TokenDigest.of("inactive"))).isNull();
+        assertThat(cache.get(TokenDigest.of("expired"))).isNull();
+        assertThat(cache.get(TokenDigest.of("no-exp"))).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void testCacheIsBounded() {
+        cache.put(TokenDigest.of("token-1"), accessToken(true, now() + 300));
+        cache.put(TokenDigest.of("token-2"), accessToken(true, now() + 300));
+        cache.put(TokenDigest.of("token-3"), accessToken(true, now() + 300));
+
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testDisabledCache() {
+        assertThat(new TokenIntrospectionCache(100, 0).isEnabled()).isFalse();
+        assertThat(cache.isEnabled()).isTrue();
+    }
+
+    private static AccessToken accessToken(final boolean active, final Long expiration) {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.setActive(active);
+        accessToken.setExpiration(expiration);
+        return accessToken;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}